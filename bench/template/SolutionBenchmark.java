@@ -0,0 +1,223 @@
+package template;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Micro-benchmarks of the hot paths of <code>Solution</code> on synthetic instances, so that every change to the search
+ * can be compared against a baseline. Topologies, vehicles and tasks are generated as the primitive arrays the search
+ * works on, standing in for the logist <code>City</code>, <code>Vehicle</code> and <code>Task</code>, so no simulation
+ * is needed.
+ *
+ * Usage: <code>java -cp bin:logist.jar template.SolutionBenchmark [sizes...]</code>, sizes being numbers of tasks
+ * (10, 50, 200 and 1000 by default). For every benchmark and size, prints the throughput, the bytes allocated per
+ * operation and the number of garbage collections during the measurement, as <code>-prof gc</code> would
+ */
+public class SolutionBenchmark {
+    
+    private final static int[] SIZES = { 10, 50, 200, 1000 };
+    private final static int CITIES = 30;
+    private final static int VEHICLES = 4;
+    
+    private final static long WARMUP_MS = 1000;
+    private final static long MEASURE_MS = 3000;
+    
+    // results are accumulated here so that the JIT cannot drop the benchmarked code
+    private static volatile double sink;
+    
+    public static void main(String[] args) {
+        int[] sizes = SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        
+        System.out.println(String.format("%-20s %6s %14s %14s %6s", "benchmark", "tasks", "ops/s", "bytes/op", "gc"));
+        
+        for (int size : sizes) {
+            final Solution s = instance(size, 42);
+            final SplittableRandom random = new SplittableRandom(42);
+            final Moves moves = new Moves();
+            
+            run("cost", size, new Runnable() {
+                @Override
+                public void run() {
+                    sink += Solution.cost(s);
+                }
+            });
+            
+            run("copy", size, new Runnable() {
+                @Override
+                public void run() {
+                    sink += new Solution(s).length(0);
+                }
+            });
+            
+            run("changeVehicleDelta", size, new Runnable() {
+                @Override
+                public void run() {
+                    int v = random.nextInt(VEHICLES);
+                    if (s.length(v) > 0) {
+                        int t = TaskTable.taskIndex(s.action(v, random.nextInt(s.length(v))));
+                        sink += s.changeVehicleDelta(v, t, (v + 1 + random.nextInt(VEHICLES - 1)) % VEHICLES);
+                    }
+                }
+            });
+            
+            run("changeOrderDelta", size, new Runnable() {
+                @Override
+                public void run() {
+                    int v = random.nextInt(VEHICLES);
+                    if (s.length(v) > 2) {
+                        int t = TaskTable.taskIndex(s.action(v, random.nextInt(s.length(v))));
+                        int i = random.nextInt(s.length(v) - 1);
+                        sink += s.changeOrderDelta(v, t, i, i + random.nextInt(s.length(v) - 1 - i));
+                    }
+                }
+            });
+            
+            run("neighbors", size, new Runnable() {
+                @Override
+                public void run() {
+                    int v = random.nextInt(VEHICLES);
+                    if (s.length(v) > 0) {
+                        s.neighbors(v, TaskTable.taskIndex(s.action(v, random.nextInt(s.length(v)))), moves);
+                        sink += moves.size();
+                    }
+                }
+            });
+            
+            run("greedySolutionAdd", size, new Runnable() {
+                @Override
+                public void run() {
+                    // the last task is left out of the instance so that it can be added
+                    Solution newS = new Solution(s);
+                    newS.greedyAdd(newS.tasks().size() - 1);
+                    sink += newS.length(0);
+                }
+            });
+            
+            // a whole search, where the interesting number is the iterations per second
+            final int iterations = 100;
+            long start = System.nanoTime();
+            long operations = run("finalSolution/100", size, new Runnable() {
+                @Override
+                public void run() {
+                    sink += Solution.cost(Solution.finalSolution(s, iterations, Long.MAX_VALUE / 2000000));
+                }
+            });
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%-20s %6d %14.1f", "  iterations/s", size, operations * iterations / seconds));
+        }
+    }
+    
+    /**
+     * Runs <code>op</code> for the warmup time then for the measurement time, prints the results and returns the number
+     * of operations done in total
+     */
+    private static long run(String name, int size, Runnable op) {
+        long operations = loop(op, WARMUP_MS);
+        
+        long bytes = allocatedBytes();
+        long gcs = collections();
+        long start = System.nanoTime();
+        
+        long measured = loop(op, MEASURE_MS);
+        
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long bytesPerOp = (allocatedBytes() - bytes) / Math.max(1, measured);
+        
+        System.out.println(String.format("%-20s %6d %14.1f %14d %6d", name, size, measured / seconds, bytesPerOp, collections() - gcs));
+        
+        return operations + measured;
+    }
+    
+    private static long loop(Runnable op, long millis) {
+        long end = System.nanoTime() + millis * 1000000L;
+        long operations = 0;
+        
+        // the clock is only read every few operations so that it does not weigh on the fast ones
+        while (System.nanoTime() - end < 0) {
+            for (int i = 0; i < 16; ++i) {
+                op.run();
+            }
+            operations += 16;
+        }
+        
+        return operations;
+    }
+    
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        
+        return 0;
+    }
+    
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        
+        return count;
+    }
+    
+    /**
+     * A random instance of <code>size</code> tasks: cities are points on a plane linked by straight roads, vehicles are
+     * like the ones of the configurations, and every task but the last one is spread over the vehicles
+     */
+    static Solution instance(int size, long seed) {
+        Random random = new Random(seed);
+        
+        int[] xs = new int[CITIES];
+        int[] ys = new int[CITIES];
+        for (int c = 0; c < CITIES; ++c) {
+            xs[c] = random.nextInt(1000);
+            ys[c] = random.nextInt(500);
+        }
+        
+        long[] units = new long[CITIES * CITIES];
+        for (int a = 0; a < CITIES; ++a) {
+            for (int b = 0; b < CITIES; ++b) {
+                units[a * CITIES + b] = Math.round(1000 * Math.hypot(xs[a] - xs[b], ys[a] - ys[b]));
+            }
+        }
+        DistanceMatrix distances = new DistanceMatrix(units, CITIES);
+        
+        int[] capacities = new int[VEHICLES];
+        int[] costsPerKm = new int[VEHICLES];
+        int[] starts = new int[VEHICLES];
+        for (int v = 0; v < VEHICLES; ++v) {
+            capacities[v] = 30;
+            costsPerKm[v] = 5;
+            starts[v] = random.nextInt(CITIES);
+        }
+        Fleet fleet = new Fleet(capacities, costsPerKm, starts, distances);
+        
+        int[] pickups = new int[size];
+        int[] deliveries = new int[size];
+        int[] weights = new int[size];
+        for (int t = 0; t < size; ++t) {
+            pickups[t] = random.nextInt(CITIES);
+            deliveries[t] = random.nextInt(CITIES);
+            weights[t] = 1 + random.nextInt(10);
+        }
+        TaskTable tasks = new TaskTable(pickups, deliveries, weights);
+        
+        Solution s = new Solution(fleet, tasks);
+        for (int t = 0; t < size - 1; ++t) {
+            int v = t % VEHICLES;
+            s.insert(v, s.length(v), TaskTable.pickup(t));
+            s.insert(v, s.length(v), TaskTable.delivery(t));
+        }
+        
+        return s;
+    }
+}
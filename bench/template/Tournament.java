@@ -0,0 +1,357 @@
+package template;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Headless tournament between the auction agents of <code>config/agents.xml</code>: every pair of agents meets in both
+ * orders on every topology of <code>config/topology</code> for every task seed. Each match is a logist simulation run
+ * without UI in its own JVM, several matches running at the same time. The simulator does not report timings, so the
+ * agents write them with <code>Metrics</code> and the results are read back from there.
+ *
+ * Usage: <code>java -cp bin:logist.jar template.Tournament [-agents a,b,...] [-topologies a,b,...] [-seeds n]
+ * [-tasks n] [-bid ms] [-plan ms] [-parallel n]</code>, run from the root of the project. For every agent, prints the
+ * matches won and lost, the mean profit, the percentiles of the bid latency and the plan latency, then the throughput
+ * of the searches over all matches. The system property <code>template.optimizer</code> is passed on to the agents
+ */
+public class Tournament {
+    
+    private final static String AGENTS = "auction-main-13,auction-main-20,auction-dummy";
+    private final static String TOPOLOGIES = "switzerland,france,england,the_netherlands";
+    private final static String PLATFORM = "logist.LogistPlatform";
+    
+    private final static Pattern CITY = Pattern.compile("<city [^>]*name=\"([^\"]+)\"");
+    private final static Pattern FIELD = Pattern.compile("\"(\\w+)\":(-?[0-9][0-9.eE+-]*|\"[^\"]*\"|null)");
+    
+    private static int seeds = 3;
+    private static int tasks = 20;
+    private static long bidMs = 1000;
+    private static long planMs = 5000;
+    private static int parallel = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    
+    /**
+     * Results of one agent over all its matches
+     */
+    private static class Record {
+        
+        private int played = 0;
+        private int won = 0;
+        private int failed = 0;
+        private double profit = 0;
+        private final List<Double> bids = new ArrayList<Double>();
+        private final List<Double> plans = new ArrayList<Double>();
+    }
+    
+    /**
+     * One simulation, agent <code>i</code> of the match having id <code>i</code>
+     */
+    private static class Match {
+        
+        private final String topology;
+        private final long seed;
+        private final String[] agents;
+        private final File dir;
+        
+        private Match(String topology, long seed, String[] agents, File dir) {
+            this.topology = topology;
+            this.seed = seed;
+            this.agents = agents;
+            this.dir = dir;
+        }
+        
+        private File metrics() {
+            return new File(dir, "metrics.jsonl");
+        }
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> agents = Arrays.asList(AGENTS.split(","));
+        List<String> topologies = Arrays.asList(TOPOLOGIES.split(","));
+        
+        for (int a = 0; a + 1 < args.length; a += 2) {
+            String value = args[a + 1];
+            if (args[a].equals("-agents")) {
+                agents = Arrays.asList(value.split(","));
+            } else if (args[a].equals("-topologies")) {
+                topologies = Arrays.asList(value.split(","));
+            } else if (args[a].equals("-seeds")) {
+                seeds = Integer.parseInt(value);
+            } else if (args[a].equals("-tasks")) {
+                tasks = Integer.parseInt(value);
+            } else if (args[a].equals("-bid")) {
+                bidMs = Long.parseLong(value);
+            } else if (args[a].equals("-plan")) {
+                planMs = Long.parseLong(value);
+            } else if (args[a].equals("-parallel")) {
+                parallel = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        
+        File root = Files.createTempDirectory("tournament").toFile();
+        final File settings = settings(root);
+        
+        List<Match> matches = new ArrayList<Match>();
+        for (String topology : topologies) {
+            for (int s = 0; s < seeds; ++s) {
+                for (int i = 0; i < agents.size(); ++i) {
+                    for (int j = 0; j < agents.size(); ++j) {
+                        if (i != j) {
+                            File dir = new File(root, topology + "-" + s + "-" + i + "-" + j);
+                            matches.add(new Match(topology, s, new String[] { agents.get(i), agents.get(j) }, dir));
+                        }
+                    }
+                }
+            }
+        }
+        
+        System.out.println(String.format("%d matches, %d at a time, in %s", matches.size(), parallel, root));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(parallel);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final Match match : matches) {
+            final File config = config(match, settings);
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException, InterruptedException {
+                    return run(match, config, settings);
+                }
+            }));
+        }
+        executor.shutdown();
+        
+        Map<String, Record> records = new LinkedHashMap<String, Record>();
+        for (String agent : agents) {
+            records.put(agent, new Record());
+        }
+        List<Double> searchRates = new ArrayList<Double>();
+        
+        for (int m = 0; m < matches.size(); ++m) {
+            boolean finished;
+            try {
+                finished = results.get(m).get();
+            } catch (ExecutionException e) {
+                finished = false;
+                System.err.println(matches.get(m).dir + ": " + e.getCause());
+            }
+            
+            score(matches.get(m), finished, records, searchRates);
+        }
+        
+        print(records, searchRates);
+    }
+    
+    /**
+     * The settings of the project with the timeouts of the tournament and without UI
+     */
+    private static File settings(File root) throws IOException {
+        String xml = new String(Files.readAllBytes(new File("config/settings_auction.xml").toPath()), StandardCharsets.UTF_8);
+        
+        xml = xml.replaceAll("timeout-setup=\"\\d+\"", "timeout-setup=\"" + Math.max(10000, planMs) + "\"");
+        xml = xml.replaceAll("timeout-plan=\"\\d+\"", "timeout-plan=\"" + planMs + "\"");
+        xml = xml.replaceAll("timeout-bid=\"\\d+\"", "timeout-bid=\"" + bidMs + "\"");
+        xml = xml.replaceAll("flag-show-ui=\"\\w+\"", "flag-show-ui=\"false\"");
+        
+        File settings = new File(root, "settings_auction.xml");
+        Files.write(settings.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        
+        return settings;
+    }
+    
+    /**
+     * Configuration of a match, as <code>config/auction.xml</code> with two vehicles per company whose homes are drawn
+     * from the cities of the topology
+     */
+    private static File config(Match match, File settings) throws IOException {
+        File topology = new File("config/topology/" + match.topology + ".xml").getAbsoluteFile();
+        String cities = new String(Files.readAllBytes(topology.toPath()), Charset.forName("ISO-8859-1"));
+        
+        List<String> names = new ArrayList<String>();
+        Matcher m = CITY.matcher(cities);
+        while (m.find()) {
+            names.add(m.group(1));
+        }
+        Random random = new Random(match.seed);
+        
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<configuration name=\"tournament\">\n");
+        xml.append("\t<settings import=\"").append(settings.getAbsolutePath()).append("\" />\n");
+        xml.append("\t<topology import=\"").append(topology.getPath()).append("\" />\n");
+        xml.append("\t<agents import=\"").append(new File("config/agents.xml").getAbsolutePath()).append("\" />\n");
+        xml.append("\t<tasks number=\"").append(tasks).append("\" rngSeed=\"").append(match.seed).append("\">\n");
+        xml.append("\t\t<probability distribution=\"uniform\" min=\"0.0\" max=\"1.0\" />\n");
+        xml.append("\t\t<reward distribution=\"constant\" policy=\"short-distances\" min=\"100\" max=\"99999\" />\n");
+        xml.append("\t\t<weight distribution=\"constant\" value=\"3\" />\n");
+        xml.append("\t</tasks>\n");
+        xml.append("\t<companies>\n");
+        for (int c = 0; c < match.agents.length; ++c) {
+            xml.append("\t\t<company name=\"Company ").append((char) ('A' + c)).append("\">\n");
+            for (int v = 0; v < 2; ++v) {
+                xml.append("\t\t\t<vehicle name=\"Vehicle ").append(2 * c + v + 1).append("\">\n");
+                xml.append("\t\t\t\t<set color=\"#").append(String.format("%06x", random.nextInt(1 << 24))).append("\" />\n");
+                xml.append("\t\t\t\t<set home=\"").append(names.get(random.nextInt(names.size()))).append("\" />\n");
+                xml.append("\t\t\t\t<set speed=\"90\" />\n");
+                xml.append("\t\t\t\t<set capacity=\"30\" />\n");
+                xml.append("\t\t\t\t<set cost-per-km=\"5\" />\n");
+                xml.append("\t\t\t</vehicle>\n");
+            }
+            xml.append("\t\t</company>\n");
+        }
+        xml.append("\t</companies>\n");
+        xml.append("</configuration>\n");
+        
+        match.dir.mkdirs();
+        File config = new File(match.dir, "auction.xml");
+        Files.write(config.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+        
+        return config;
+    }
+    
+    /**
+     * Runs the simulation of <code>match</code> and returns whether it finished in time. What the platform prints goes
+     * to a log next to the metrics
+     */
+    private static boolean run(Match match, File config, File settings) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-Dtemplate.metrics=" + match.metrics().getAbsolutePath());
+        command.add("-Dtemplate.settings=" + settings.getAbsolutePath());
+        command.add("-Dtemplate.log=error");
+        if (System.getProperty("template.optimizer") != null) {
+            command.add("-Dtemplate.optimizer=" + System.getProperty("template.optimizer"));
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(PLATFORM);
+        command.add(config.getAbsolutePath());
+        command.addAll(Arrays.asList(match.agents));
+        
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(new File(match.dir, "logist.log")).start();
+        
+        // every auction and the plan may take their whole timeout, plus the time to start the JVMs
+        long timeout = Math.max(10000, planMs) + tasks * bidMs + planMs + 60000;
+        if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly();
+            return false;
+        }
+        
+        return process.exitValue() == 0;
+    }
+    
+    /**
+     * Adds the results of <code>match</code> to the records of its agents. An agent that did not plan lost the match
+     */
+    private static void score(Match match, boolean finished, Map<String, Record> records, List<Double> searchRates) throws IOException {
+        double[] profits = new double[match.agents.length];
+        boolean[] planned = new boolean[match.agents.length];
+        
+        List<String> lines = match.metrics().exists() ? Files.readAllLines(match.metrics().toPath(), StandardCharsets.UTF_8) : Collections.<String> emptyList();
+        for (String line : lines) {
+            Map<String, String> fields = fields(line);
+            String event = fields.get("event");
+            
+            if (event.equals("search")) {
+                if (fields.containsKey("iterationsPerSecond")) {
+                    searchRates.add(Double.parseDouble(fields.get("iterationsPerSecond")));
+                }
+                continue;
+            } else if (!fields.containsKey("agent")) {
+                continue;
+            }
+            
+            int id = Integer.parseInt(fields.get("agent"));
+            Record record = records.get(match.agents[id]);
+            if (event.equals("bid")) {
+                record.bids.add(Double.parseDouble(fields.get("ms")));
+            } else if (event.equals("plan")) {
+                record.plans.add(Double.parseDouble(fields.get("ms")));
+                profits[id] = Double.parseDouble(fields.get("reward")) - Double.parseDouble(fields.get("cost"));
+                planned[id] = true;
+            }
+        }
+        
+        for (int id = 0; id < match.agents.length; ++id) {
+            Record record = records.get(match.agents[id]);
+            ++record.played;
+            
+            if (!finished || !planned[id]) {
+                ++record.failed;
+                continue;
+            }
+            
+            record.profit += profits[id];
+            boolean best = true;
+            for (int other = 0; other < match.agents.length; ++other) {
+                best &= other == id || !planned[other] || profits[id] > profits[other];
+            }
+            if (best) {
+                ++record.won;
+            }
+        }
+    }
+    
+    private static Map<String, String> fields(String line) {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        
+        Matcher m = FIELD.matcher(line);
+        while (m.find()) {
+            // a null value, such as a rate over no time, is left out
+            String value = m.group(2);
+            if (!value.equals("null")) {
+                fields.put(m.group(1), value.startsWith("\"") ? value.substring(1, value.length() - 1) : value);
+            }
+        }
+        
+        return fields;
+    }
+    
+    private static void print(Map<String, Record> records, List<Double> searchRates) {
+        System.out.println(String.format("%-20s %6s %6s %6s %12s %10s %10s %10s %10s %10s", "agent", "played", "won", "failed",
+                "profit", "bid p50", "bid p90", "bid p99", "plan p50", "plan max"));
+        
+        for (Map.Entry<String, Record> e : records.entrySet()) {
+            Record r = e.getValue();
+            System.out.println(String.format("%-20s %6d %6d %6d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f", e.getKey(), r.played,
+                    r.won, r.failed, r.profit / Math.max(1, r.played - r.failed), percentile(r.bids, 0.5), percentile(r.bids, 0.9),
+                    percentile(r.bids, 0.99), percentile(r.plans, 0.5), percentile(r.plans, 1)));
+        }
+        
+        System.out.println(String.format("search: %d runs, %.1f iterations/s at p50, %.1f at p10", searchRates.size(),
+                percentile(searchRates, 0.5), percentile(searchRates, 0.1)));
+    }
+    
+    /**
+     * The <code>q</code>-quantile of <code>values</code> by nearest rank, 0 if there is none
+     */
+    private static double percentile(List<Double> values, double q) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        
+        List<Double> sorted = new ArrayList<Double>(values);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(q * sorted.size());
+        
+        return sorted.get(Math.min(sorted.size(), Math.max(1, rank)) - 1);
+    }
+}
@@ -0,0 +1,251 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs local searches in the background and always holds the best solution any of them found so far, so that a result
+ * is available at the deadline even if a search is in the middle of a long iteration
+ */
+public class AnytimeSolver {
+    
+    private final static ForkJoinPool shared = new ForkJoinPool();
+    private final static String OPTIMIZER = System.getProperty("template.optimizer", "lns");
+    
+    private final ForkJoinPool pool;
+    private final Deadline deadline;
+    private final List<ForkJoinTask<Solution>> searches;
+    private final AtomicLong iterations;
+    private final AtomicLong evaluated;
+    private final long start;
+    
+    private Solution best;
+    private double bestCost;
+    // cost under which a solution is near enough to the lower bound to stop searching
+    private final double target;
+    
+    // (time in ms, cost) of every improvement, only kept when metrics are written
+    private final List<double[]> curve;
+    
+    /**
+     * Starts one search of at most <code>iter</code> iterations per given initial solution, with the optimizer of
+     * <code>defaultOptimizer</code>. The searches stop at <code>deadline</code>, or earlier if the solver is cancelled
+     */
+    public AnytimeSolver(List<Solution> initSs, int iter, Deadline deadline) {
+        this(initSs, iter, deadline, defaultOptimizer());
+    }
+    
+    /**
+     * Same as <code>AnytimeSolver(initSs, iter, deadline)</code>, searching with <code>optimizer</code>
+     */
+    public AnytimeSolver(List<Solution> initSs, int iter, Deadline deadline, Optimizer optimizer) {
+        this(initSs, iter, deadline, optimizer, shared);
+    }
+    
+    /**
+     * Same as <code>AnytimeSolver(initSs, iter, deadline, optimizer)</code>, running the searches on <code>pool</code>
+     * instead of the pool shared by every agent
+     */
+    public AnytimeSolver(List<Solution> initSs, int iter, Deadline deadline, Optimizer optimizer, ForkJoinPool pool) {
+        this(initSs, deadline, pool);
+        
+        for (int i = 0; i < initSs.size(); ++i) {
+            submit(initSs.get(i), iter, optimizer, i, initSs.size());
+        }
+    }
+    
+    /**
+     * Solver holding the given initial solutions, whose searches are submitted by the caller
+     */
+    private AnytimeSolver(List<Solution> initSs, Deadline deadline, ForkJoinPool pool) {
+        this.pool = pool;
+        this.deadline = deadline.split(1);
+        this.searches = new ArrayList<ForkJoinTask<Solution>>();
+        this.iterations = new AtomicLong();
+        this.evaluated = new AtomicLong();
+        this.start = System.nanoTime();
+        this.curve = Metrics.isEnabled() ? new ArrayList<double[]>() : null;
+        this.best = null;
+        this.bestCost = Double.POSITIVE_INFINITY;
+        this.target = initSs.isEmpty() ? Double.NEGATIVE_INFINITY : LowerBound.of(initSs.get(0)) * (1 + LowerBound.EPSILON);
+        
+        for (Solution initS : initSs) {
+            offer(initS, Solution.totalCost(initS));
+        }
+    }
+    
+    /**
+     * Solves every list of initial solutions of <code>initSs</code> at the same time until <code>deadline</code>, and
+     * returns the best solution of each list in the same order, <code>null</code> for an empty list. The searches of
+     * the lists are submitted in turn, so that each list gets the same share of the pool whatever its parallelism
+     */
+    public static Solution[] solveAll(List<List<Solution>> initSs, int iter, Deadline deadline) {
+        AnytimeSolver[] solvers = new AnytimeSolver[initSs.size()];
+        int count = 0;
+        int rounds = 0;
+        for (int k = 0; k < solvers.length; ++k) {
+            solvers[k] = new AnytimeSolver(initSs.get(k), deadline, shared);
+            count += initSs.get(k).size();
+            rounds = Math.max(rounds, initSs.get(k).size());
+        }
+        
+        Optimizer optimizer = defaultOptimizer();
+        int index = 0;
+        for (int i = 0; i < rounds; ++i) {
+            for (int k = 0; k < solvers.length; ++k) {
+                if (i < initSs.get(k).size()) {
+                    solvers[k].submit(initSs.get(k).get(i), iter, optimizer, index++, count);
+                }
+            }
+        }
+        
+        Solution[] best = new Solution[solvers.length];
+        for (int k = 0; k < solvers.length; ++k) {
+            best[k] = solvers[k].await();
+        }
+        
+        return best;
+    }
+    
+    private void submit(final Solution initS, final int iter, final Optimizer optimizer, final int index, final int count) {
+        final SplittableRandom random = Solution.newRandom();
+        searches.add(pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                optimizer.optimize(initS, iter, slice(index, count), random, AnytimeSolver.this);
+            }
+        }, (Solution) null));
+    }
+    
+    /**
+     * Deadline of the <code>index</code>-th search submitted to the pool out of <code>count</code>. With more searches
+     * than threads, the searches run in waves and the remaining time is shared between the waves left, otherwise the
+     * first ones would take all of it
+     */
+    private Deadline slice(int index, int count) {
+        int waves = (count - index + pool.getParallelism() - 1) / pool.getParallelism();
+        
+        return deadline.split(Math.max(1, waves));
+    }
+    
+    /**
+     * Optimizer used when none is given, read from the system property <code>template.optimizer</code>:
+     * <code>lns</code> (<code>LargeNeighborhoodSearch</code>, the default), <code>annealing</code>
+     * (<code>SimulatedAnnealing</code>), <code>tabu</code> (<code>TabuSearch</code>) or <code>walk</code>
+     * (<code>RandomWalk</code>)
+     */
+    public static Optimizer defaultOptimizer() {
+        if (OPTIMIZER.equalsIgnoreCase("annealing")) {
+            return new SimulatedAnnealing();
+        } else if (OPTIMIZER.equalsIgnoreCase("tabu")) {
+            return new TabuSearch();
+        } else if (OPTIMIZER.equalsIgnoreCase("walk")) {
+            return new RandomWalk();
+        }
+        
+        return new LargeNeighborhoodSearch();
+    }
+    
+    /**
+     * Number of searches that can run at the same time on the shared pool
+     */
+    public static int parallelism() {
+        return shared.getParallelism();
+    }
+    
+    public synchronized Solution best() {
+        return best;
+    }
+    
+    public synchronized double bestCost() {
+        return bestCost;
+    }
+    
+    /**
+     * Called by the searches every time they find a better solution. The searches are stopped once it is certified
+     * near optimal by the lower bound of its tasks
+     */
+    synchronized void offer(Solution s, double cost) {
+        if (cost < bestCost) {
+            best = s;
+            bestCost = cost;
+            
+            if (curve != null) {
+                curve.add(new double[] { (System.nanoTime() - start) / 1e6, cost });
+            }
+            
+            if (cost <= target) {
+                Metrics.count("search.certified", 1);
+                cancel();
+            }
+        }
+    }
+    
+    /**
+     * Called by the searches when they stop, with the number of iterations they did and of neighbors they scored
+     */
+    void report(long searchIterations, long searchEvaluated) {
+        iterations.addAndGet(searchIterations);
+        evaluated.addAndGet(searchEvaluated);
+    }
+    
+    /**
+     * Waits until every search is done or the deadline is reached, then stops the searches and returns the best solution
+     */
+    public Solution await() {
+        try {
+            for (ForkJoinTask<Solution> search : searches) {
+                search.get(Math.max(0, deadline.remaining()), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            // the deadline is reached, the best solution so far is the result
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        
+        cancel();
+        
+        if (Metrics.isEnabled()) {
+            record();
+        }
+        
+        return best();
+    }
+    
+    /**
+     * Writes how the search went: iterations and neighbors per second and the best cost over time. Searches still
+     * finishing their last iteration are not counted
+     */
+    private synchronized void record() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        double[] times = new double[curve.size()];
+        double[] costs = new double[curve.size()];
+        for (int i = 0; i < curve.size(); ++i) {
+            times[i] = curve.get(i)[0];
+            costs[i] = curve.get(i)[1];
+        }
+        
+        Metrics.count("search.iterations", iterations.get());
+        Metrics.count("search.evaluated", evaluated.get());
+        Metrics.event("search", "searches", searches.size(), "seconds", seconds, "iterations", iterations.get(),
+                "iterationsPerSecond", iterations.get() / seconds, "evaluatedPerSecond", evaluated.get() / seconds,
+                "bestCost", bestCost, "curveMs", times, "curveCost", costs);
+    }
+    
+    /**
+     * Stops the searches, the best solution so far stays available
+     */
+    public void cancel() {
+        deadline.cancel();
+    }
+}
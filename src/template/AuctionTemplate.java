@@ -33,6 +33,7 @@ import logist.topology.Topology.City;
 public class AuctionTemplate implements AuctionBehavior {
 
 	private Topology topology;
+	private DistanceMatrix distances;
 	private TaskDistribution distribution;
 	private Agent agent;
 	private Random random;
@@ -40,6 +41,7 @@ public class AuctionTemplate implements AuctionBehavior {
 
     private long timeoutSetup;
     private long timeoutPlan;
+    private long timeoutBid;
         
     private Task badVersion;
     private Task badVersionIfWin;
@@ -54,24 +56,33 @@ public class AuctionTemplate implements AuctionBehavior {
 	
 	private double confidence;
 	private double valenceFactor = 10;
+	
+	private BayesianEstimator estimator;
+	// best solutions of the task sets solved lately, asking for the same set again refines them
+	private TaskSetCache solutions;
 
 	@Override
 	public void setup(Topology topology, TaskDistribution distribution,	Agent agent) {
         LogistSettings ls = null;
         try {
-            ls = Parsers.parseSettings("config\\settings_auction.xml");
+            ls = Parsers.parseSettings(System.getProperty("template.settings", "config\\settings_auction.xml"));
         } catch (Exception exc) {
-            System.out.println("There was a problem loading the configuration file.");
+            Log.error("There was a problem loading the configuration file: %s", exc);
         }
 
         // the setup method cannot last more than timeout_setup milliseconds
         timeoutSetup = ls.get(LogistSettings.TimeoutKey.SETUP);
         // the plan method cannot execute more than timeout_plan milliseconds
         timeoutPlan = ls.get(LogistSettings.TimeoutKey.PLAN);
+        // the askPrice method cannot execute more than timeout_bid milliseconds
+        timeoutBid = ls.get(LogistSettings.TimeoutKey.BID);
         
 		this.topology = topology;
+		this.distances = DistanceMatrix.of(topology);
 		this.distribution = distribution;
 		this.agent = agent;
+		this.estimator = new BayesianEstimator(distribution, 0.05);
+		this.solutions = new TaskSetCache(256);
 
 //		long seed = -9019554669489983951L * currentCity.hashCode() * agent.id();
 //		this.random = new Random(seed);
@@ -93,17 +104,20 @@ public class AuctionTemplate implements AuctionBehavior {
 	@Override
 	public void auctionResult(Task previous, int winner, Long[] bids) {	    
 		if (winner == agent.id()) {
-	        System.out.println("winner is " + winner + ", task " + previous + " (confidence was " + confidence + ")");
+	        boolean info = Log.isEnabled(Log.INFO);
+	        if (info) {
+	            Log.info("winner is %d, task %s (confidence was %s)", winner, previous, confidence);
+	        }
 	        for (int i = 0; i < bids.length; ++i) {
 	            if (bids[i] > 0) {
-	                System.out.println("\tagent " + i + " bidded " + bids[i]);
+	                if (info) {
+	                    Log.info("\tagent %d bidded %d", i, bids[i]);
+	                }
 	            } else {
-	                System.err.println("\tagent " + i + " a chié dans la colle");
+	                Log.error("\tagent %d a chié dans la colle", i);
 	            }
 	        }
 	        
-	        System.out.println();
-	        
 			ours.add(previous);
 			goodVersion = previous;
 			badVersion = badVersionIfWin;
@@ -120,59 +134,74 @@ public class AuctionTemplate implements AuctionBehavior {
 	
 	@Override
     public List<Plan> plan(List<Vehicle> vehicles, TaskSet tasks) {
-        List<Plan> plans = planFromSolution(ourSolution, vehicles);
+        long started = System.nanoTime();
+        // the solution kept through the auctions is improved for the whole plan timeout
+        Solution finalS = Solution.parallelFinalSolution(Solution.matchTasks(ourSolution, tasks), Integer.MAX_VALUE, Deadline.forTimeout(timeoutPlan));
+        List<Plan> plans = planFromSolution(finalS, vehicles);
+        
+        long reward = 0;
+        for (Task t : tasks) {
+            reward += t.reward;
+        }
+        
+        long nanos = System.nanoTime() - started;
+        Metrics.latency("agent" + agent.id() + ".plan", nanos);
+        Metrics.event("plan", "agent", agent.id(), "tasks", ours.size(), "reward", reward, "cost", Solution.cost(finalS), "ms", nanos / 1e6);
+        Metrics.flush();
         return plans;
     }
 	
 	/**
      * Creates a <code>Plan</code> of the Logist library from a solution
      */
-    private List<Plan> planFromSolution(Solution finalS, List<Vehicle> vehicles) {
-        List<Plan> plans = new ArrayList<Plan>();
+    private List<Plan> planFromSolution(final Solution finalS, List<Vehicle> vehicles) {
+        Log.info("agent %d: %d tasks", agent.id(), ours.size());
+        Log.debug("agent %d plans%n%s", agent.id(), finalS);
         
-        System.out.println("agent " + agent.id());
-        System.out.println(finalS);
-        System.out.println(ours.size() + " tasks\n");
-        
-        for (Vehicle v : vehicles) {            
-            City previous = v.getCurrentCity();
-            Plan plan = new Plan(previous);
-            
-            if (finalS != null) {            
-                for (TaskAugmented t : finalS.get(v)) {
-                    for (City c : previous.pathTo(t.city())) {
-                        plan.append(new Action.Move(c));
-                    }
-                    
-                    if (t.isPickup()) {
-                        if (t.task() == badVersion) {
-                            plan.append(new Action.Pickup(goodVersion));
-                        } else {
-                            plan.append(new Action.Pickup(t.task()));
+        return Plans.build(vehicles, new Plans.Builder() {
+            @Override
+            public Plan build(Vehicle v) {
+                City previous = v.getCurrentCity();
+                Plan plan = new Plan(previous);
+                
+                if (finalS != null) {
+                    for (TaskAugmented t : finalS.get(v)) {
+                        for (Action move : distances.moves(previous, t.city())) {
+                            plan.append(move);
                         }
-                    } else {
-                        if (t.task() == badVersion) {
-                            plan.append(new Action.Delivery(goodVersion));
+                        
+                        if (t.isPickup()) {
+                            if (t.task() == badVersion) {
+                                plan.append(new Action.Pickup(goodVersion));
+                            } else {
+                                plan.append(new Action.Pickup(t.task()));
+                            }
                         } else {
-                            plan.append(new Action.Delivery(t.task()));
+                            if (t.task() == badVersion) {
+                                plan.append(new Action.Delivery(goodVersion));
+                            } else {
+                                plan.append(new Action.Delivery(t.task()));
+                            }
                         }
+                        
+                        previous = t.city();
                     }
-                    
-                    previous = t.city();
                 }
+                
+                return plan;
             }
-            
-            plans.add(plan);
-        }
-        
-        return plans;
+        });
     }
 	
 	@Override
 	public Long askPrice(Task task) {
+	    long started = System.nanoTime();
+	    long allocated = Metrics.isEnabled() ? Metrics.allocatedBytes() : 0;
+	    long[] gc = Metrics.isEnabled() ? Metrics.gc() : null;
 	    badVersionIfWin = task;
+	    Deadline bid = Deadline.forTimeout(timeoutBid);
 	    
-	    double marginalCost = marginalCost(ours, task);
+	    double marginalCost = marginalCost(ours, task, bid.split(2));
 	    double inefficientCost = 0;
 	    if (!ours.isEmpty()) {
 	        inefficientCost(ourSolution, task);
@@ -180,29 +209,42 @@ public class AuctionTemplate implements AuctionBehavior {
 	    
 	    double count = 3;
 	    
-	    while (!ours.isEmpty() && count > 0) {
+	    while (!ours.isEmpty() && count > 0 && !bid.expired()) {
+	        // a solution within epsilon of its lower bound is not recomputed, and when both should be, only the one
+	        // that can gain the most is
+	        boolean retryOurs = marginalCost < 0 && !LowerBound.isNearOptimal(ourSolution);
+	        boolean retryNext = marginalCost > inefficientCost && !LowerBound.isNearOptimal(potentialNextSolution);
+	        if (retryOurs && retryNext) {
+	            retryNext = LowerBound.gap(potentialNextSolution) > LowerBound.gap(ourSolution);
+	            retryOurs = !retryNext;
+	        }
+	        
+	        if (!retryOurs && !retryNext) {
+	            break;
+	        }
+	        
 	        // Means old solution is not optimal
-    	    if (marginalCost < 0) {
+    	    if (retryOurs) {
     	        // Recompute ourSolution
-    	        Solution s = Solution.selectInitialSolution(agent.vehicles(), ours);
-    	        Solution f = Solution.finalSolution(s, 1000, timeoutPlan);
+    	        Metrics.count("retry.without", 1);
+    	        Solution f = solutions.solve(agent.vehicles(), ours, 1000, bid.split(4));
     	        ourSolution = f;
     	        ourCost = Measures.unitsToKM(Solution.cost(f));
     	        
     	        marginalCost = potentialNextCost - ourCost;
     	    }
     	    // Means new solution is not optimal
-    	    if (marginalCost > inefficientCost) {
+    	    if (retryNext && marginalCost > inefficientCost) {
     	        // Recompute potentialNextSolution
-                marginalCost = marginalCost(ours, task);
+                Metrics.count("retry.with", 1);
+                marginalCost = marginalCost(ours, task, bid.split(4));
     	    }
             --count;
 	    }
 	    
 	    // Worst case scenario, one of the solution is still not optimal for sure, we use inefficient solution then
 	    if (!ours.isEmpty() && marginalCost < 0) {
-	        ourSolution = potentialNextSolution;
-	        ourSolution.remove(task);
+	        ourSolution = Solution.greedySolutionRemove(potentialNextSolution, task);
             ourCost = Measures.unitsToKM(Solution.cost(ourSolution));
             
             marginalCost = potentialNextCost - ourCost;
@@ -215,6 +257,14 @@ public class AuctionTemplate implements AuctionBehavior {
             marginalCost = potentialNextCost - ourCost;
 	    }
 	    
+	    if (Metrics.isEnabled()) {
+	        long nanos = System.nanoTime() - started;
+	        long[] gcAfter = Metrics.gc();
+	        Metrics.latency("agent" + agent.id() + ".bid", nanos);
+	        Metrics.event("bid", "agent", agent.id(), "task", task.id, "ms", nanos / 1e6, "marginalCost", marginalCost,
+	                "allocatedBytes", Math.max(0, Metrics.allocatedBytes() - allocated), "gcCount", gcAfter[0] - gc[0], "gcMs", gcAfter[1] - gc[1]);
+	    }
+	    
 	    return (long) (marginalCost * confidence - (task.deliveryCity.neighbors().size() + task.pickupCity.neighbors().size()) * valenceFactor);
 	}
 	
@@ -233,7 +283,7 @@ public class AuctionTemplate implements AuctionBehavior {
 	            City city = vt.city();
 	            if (!cities.contains(city)) {
 	                cities.add(vt.city());
-	                double cost = Measures.unitsToKM(city.distanceUnitsTo(pickup) + pickup.distanceUnitsTo(deliver) + deliver.distanceUnitsTo(city));
+	                double cost = Measures.unitsToKM(distances.units(city, pickup) + distances.units(pickup, deliver) + distances.units(deliver, city));
 	                if (bestCost > cost) {
 	                    bestCost = cost;
 	                    bestTask = vt;
@@ -249,42 +299,54 @@ public class AuctionTemplate implements AuctionBehavior {
 	    return bestCost;
 	}
 	
-	private double marginalCost(Set<Task> tasks, Task task) {        
+	private double marginalCost(Set<Task> tasks, Task task, Deadline deadline) {        
         Set<Task> oursCopy = new HashSet<Task>(tasks);
         oursCopy.add(task);
-        Solution s = Solution.selectInitialSolution(agent.vehicles(), oursCopy);
 //        Solution s = new Solution(ourSolution);
 //        s.add(agent.vehicles().get(0), task);
 
-        Solution f = Solution.finalSolution(s, 1000, timeoutPlan);
+        Solution f = solutions.solve(agent.vehicles(), oursCopy, 1000, deadline);
+
+        potentialNextSolution = f;
+        potentialNextCost = initialCost(oursCopy);
+        
+        return potentialNextCost - ourCost;
+	}
+	
+	/**
+	 * Cost of the initial solution of <code>tasks</code>, which is what <code>marginalCost</code> prices
+	 */
+	private double initialCost(Set<Task> tasks) {
+        Solution s = Solution.selectInitialSolution(agent.vehicles(), tasks);
         
         double cost = 0;
         for (Vehicle v : agent.vehicles()) {
             cost += Measures.unitsToKM(Solution.cost(s, v) * v.costPerKm());
         }
-
-        potentialNextSolution = f;
-        potentialNextCost = cost;
         
-        return potentialNextCost - ourCost;
+        return cost;
 	}
 	
-	private double bayesMargCost(Task t, Set<Task> tasks) {
-		double cost = 0;
-		double weights = 0;
+	private double bayesMargCost(Task t, Set<Task> tasks, Deadline deadline) {
+		List<City[]> links = new ArrayList<City[]>();
 		for(City from : topology.cities()) {
 			for(City to : topology.cities()) {
 				if(isLink(from, to, t, tasks)) {
-					Task potential = new Task(-1, from, to, 0, 0);
-					Set<Task> includePotential = new HashSet<Task>(tasks);
-					includePotential.add(potential);
-					double weight = distribution.probability(from, to);
-					weights += weight;
-					cost += weight * marginalCost(includePotential, t);
+					links.add(new City[] { from, to });
 				}
 			}
 		}
-		return cost / weights;
+		
+		// marginalCost sets the potential next solution, only its price is needed here so that pairs can be evaluated at once
+		return estimator.estimate(t, tasks, links, deadline, new BayesianEstimator.MarginalCost() {
+			@Override
+			public double of(Task toBid, Set<Task> won, Deadline deadline) {
+				Set<Task> wonAndToBid = new HashSet<Task>(won);
+				wonAndToBid.add(toBid);
+				
+				return initialCost(wonAndToBid) - ourCost;
+			}
+		});
 	}
 	
 	private boolean isLink(City potentialFrom, City potentialTo, Task toBid, Set<Task> won) {
@@ -2,6 +2,7 @@ package template;
 
 //the list of imports
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -30,7 +31,11 @@ import logist.topology.Topology.City;
 @SuppressWarnings("unused")
 public class AuctionTemplate2 implements AuctionBehavior {
 
+	// searches per side of a marginal cost, both sides together about fill the pool
+	private final static int SEARCHES = Math.max(3, (AnytimeSolver.parallelism() + 1) / 2);
+
 	private Topology topology;
+	private DistanceMatrix distances;
 	private TaskDistribution distribution;
 	private Agent agent;
 	
@@ -41,18 +46,30 @@ public class AuctionTemplate2 implements AuctionBehavior {
     
 	private Set<Task> wonTasks;
 	private double confidence;
+	
+	// optimized solution of wonTasks, kept from one auction to the next
+	private Solution current;
+	// optimized solution of wonTasks and the last task we bid on
+	private Solution candidate;
+	private Task candidateTask;
+	// solves the most likely next auctions while we wait for them
+	private Speculator speculator;
+	private BayesianEstimator estimator;
+	// best solutions of the task sets solved lately, bids on the same set refine them
+	private TaskSetCache solutions;
 
 	@Override
 	public void setup(Topology topology, TaskDistribution distribution, Agent agent) {
 		this.topology = topology;
+		this.distances = DistanceMatrix.of(topology);
 		this.distribution = distribution;
 		this.agent = agent;
 		
         LogistSettings ls = null;
         try {
-            ls = Parsers.parseSettings("config\\settings_auction.xml");
+            ls = Parsers.parseSettings(System.getProperty("template.settings", "config\\settings_auction.xml"));
         } catch (Exception exc) {
-            System.out.println("There was a problem loading the configuration file.");
+            Log.error("There was a problem loading the configuration file: %s", exc);
         }
 
         timeoutPlan = ls.get(LogistSettings.TimeoutKey.PLAN);
@@ -62,45 +79,66 @@ public class AuctionTemplate2 implements AuctionBehavior {
         
         wonTasks = new HashSet<Task>();
         confidence = -0.05d;
+        
+        current = Solution.selectInitialSolutionBis(agent.vehicles(), wonTasks);
+        
+        speculator = new Speculator(topology, distribution, timeoutBid / 4);
+        speculator.start(current, true);
+        estimator = new BayesianEstimator(distribution, 0.05);
+        solutions = new TaskSetCache(256);
 	}
 
     @Override
     public List<Plan> plan(List<Vehicle> vehicles, TaskSet tasks) {
-        List<Plan> plans = new ArrayList<Plan>();
+        long started = System.nanoTime();
+        // the auctions are over
+        speculator.shutdown();
         
-        Solution finalS = Solution.selectInitialSolution(vehicles, wonTasks);
-        finalS = Solution.finalSolution(finalS, 20000, timeoutPlan);
+        // the search goes on from the best solution kept through the auctions, for the whole plan timeout
+        Solution start = current;
+        if (Solution.cost(speculator.base()) < Solution.cost(start)) {
+            start = speculator.base();
+        }
+        final Solution finalS = Solution.parallelFinalSolution(Solution.matchTasks(start, tasks), Integer.MAX_VALUE, Deadline.forTimeout(timeoutPlan));
 
-        System.out.println();
-        System.out.println("***********");
-        System.out.println("| agent " + agent.id() + " |");
-        System.out.println("***********");
-        System.out.println(finalS);
-        System.out.println(wonTasks.size() + " tasks");        
-        System.out.println("cost is " + Solution.cost(finalS) + ", win is " + wins.get(agent.id()));
+        Log.info("agent %d: %d tasks, cost is %d, win is %d", agent.id(), wonTasks.size(), Solution.cost(finalS), wins.get(agent.id()));
+        Log.debug("agent %d plans%n%s", agent.id(), finalS);
 
-        for (Vehicle v : vehicles) {
-            City previous = v.getCurrentCity();
-            Plan plan = new Plan(previous);
+        List<Plan> plans = Plans.build(vehicles, new Plans.Builder() {
+            @Override
+            public Plan build(Vehicle v) {
+                City previous = v.getCurrentCity();
+                Plan plan = new Plan(previous);
 
-            if (finalS != null) {
-                for (TaskAugmented t : finalS.get(v)) {
-                    for (City c : previous.pathTo(t.city())) {
-                        plan.append(new Action.Move(c));
-                    }
+                if (finalS != null) {
+                    for (TaskAugmented t : finalS.get(v)) {
+                        for (Action move : distances.moves(previous, t.city())) {
+                            plan.append(move);
+                        }
 
-                    if (t.isPickup()) {
-                        plan.append(new Action.Pickup(t.task()));
-                    } else {
-                        plan.append(new Action.Delivery(t.task()));
-                    }
+                        if (t.isPickup()) {
+                            plan.append(new Action.Pickup(t.task()));
+                        } else {
+                            plan.append(new Action.Delivery(t.task()));
+                        }
 
-                    previous = t.city();
+                        previous = t.city();
+                    }
                 }
-            }
 
-            plans.add(plan);
+                return plan;
+            }
+        });
+        
+        long reward = 0;
+        for (Task t : tasks) {
+            reward += t.reward;
         }
+        
+        long nanos = System.nanoTime() - started;
+        Metrics.latency("agent" + agent.id() + ".plan", nanos);
+        Metrics.event("plan", "agent", agent.id(), "tasks", wonTasks.size(), "reward", reward, "cost", Solution.cost(finalS), "ms", nanos / 1e6);
+        Metrics.flush();
 
         return plans;
     }
@@ -109,27 +147,56 @@ public class AuctionTemplate2 implements AuctionBehavior {
 	public void auctionResult(Task previous, int winner, Long[] bids) {
 	    wins.put(winner, (int) (wins.getOrDefault(winner, 0) + previous.reward));
 	    
-        System.out.println();
-        System.out.println(winner + " won " + previous);
-        for (int i = 0; i < bids.length; ++i) {
-            System.out.print("  " + i + " bidded " + bids[i] + " CHF");
-            System.out.println(i == agent.id() ? " (confidence was " + String.format("%.2g", confidence) + ")" : "");
+        if (Log.isEnabled(Log.INFO)) {
+            Log.info("%d won %s", winner, previous);
+            for (int i = 0; i < bids.length; ++i) {
+                if (i == agent.id()) {
+                    Log.info("  %d bidded %d CHF (confidence was %.2g)", i, bids[i], confidence);
+                } else {
+                    Log.info("  %d bidded %d CHF", i, bids[i]);
+                }
+            }
         }
         
 		if (winner == agent.id()) {
 		    wonTasks.add(previous);            
 		    confidence += 0.05d;
+		    
+		    // the task we bid on and the one we won are different objects
+		    if (candidateTask != null && previous.id == candidateTask.id) {
+		        current = Solution.replaceTask(candidate, candidateTask, previous);
+		    } else {
+		        current = insert(current, previous);
+		    }
 		} else {
 		    confidence = Math.max(confidence - 0.05d, 0d);
 		}
+		
+		// what was speculated only stays valid if our tasks did not change
+		speculator.start(current, winner == agent.id());
 	}
 	
 	@Override
 	public Long askPrice(Task task) {
-	    long price = (long) marginalCost(task);
+	    // everything done for this bid must fit in this deadline, the best price so far is returned when it is reached
+	    long started = System.nanoTime();
+	    long allocated = Metrics.isEnabled() ? Metrics.allocatedBytes() : 0;
+	    long[] gc = Metrics.isEnabled() ? Metrics.gc() : null;
+	    Deadline bid = Deadline.forTimeout(timeoutBid);
+	    speculator.stop();
 	    
-	    if (price < 0) {
-	        System.out.println(agent.id() + " is pretty dumb, " + price);
+	    long price = (long) marginalCost(task, bid);
+	    
+	    if (price < 0 && Log.isEnabled(Log.DEBUG)) {
+	        Log.debug("%d is pretty dumb, %d", agent.id(), price);
+	    }
+	    
+	    if (Metrics.isEnabled()) {
+	        long nanos = System.nanoTime() - started;
+	        long[] gcAfter = Metrics.gc();
+	        Metrics.latency("agent" + agent.id() + ".bid", nanos);
+	        Metrics.event("bid", "agent", agent.id(), "task", task.id, "ms", nanos / 1e6, "marginalCost", price,
+	                "allocatedBytes", Math.max(0, Metrics.allocatedBytes() - allocated), "gcCount", gcAfter[0] - gc[0], "gcMs", gcAfter[1] - gc[1]);
 	    }
 	    
 	    price = Math.max(price, 20);
@@ -137,24 +204,24 @@ public class AuctionTemplate2 implements AuctionBehavior {
 	    return (long) (price * (1 + confidence));
 	}
 	
-	private double bayesianMarginalCost(Task t) {
-        double cost = 0;
-        double weights = 0;
+	private double bayesianMarginalCost(Task t, Deadline bid) {
+        List<City[]> links = new ArrayList<City[]>();
         
         for(City from : topology.cities()) {
             for(City to : topology.cities()) {
                 if(isLinkOne(from, to, t, wonTasks)) {
-                    Task potential = new Task(-1, from, to, 0, 0);
-                    Set<Task> includePotential = new HashSet<Task>(wonTasks);
-                    includePotential.add(potential);
-                    double weight = distribution.probability(from, to);
-                    weights += weight;
-                    cost += weight * marginalCost(t, includePotential, false);
+                    links.add(new City[] { from, to });
                 }
             }
         }
         
-        return cost / weights;
+        return estimator.estimate(t, wonTasks, links, bid, new BayesianEstimator.MarginalCost() {
+            @Override
+            public double of(Task toBid, Set<Task> won, Deadline deadline) {
+                // the estimator evaluates several phantoms at once, each one only gets one search per side
+                return marginalCost(toBid, won, deadline, 1, false);
+            }
+        });
     }
 	
 	private boolean isLinkOne(City potentialFrom, City potentialTo, Task toBid, Set<Task> won) {
@@ -183,8 +250,8 @@ public class AuctionTemplate2 implements AuctionBehavior {
 		double bestCostDelToPick = Double.MAX_VALUE;
 		
 		for(Task c : won) {
-			double distDelToPick = c.deliveryCity.distanceTo(toBid.pickupCity);
-			double distPickToDel = c.pickupCity.distanceTo(toBid.deliveryCity);
+			double distDelToPick = distances.km(c.deliveryCity, toBid.pickupCity);
+			double distPickToDel = distances.km(c.pickupCity, toBid.deliveryCity);
 			
 			if(distDelToPick < bestCostDelToPick) {
 				closestToPickup = c.deliveryCity;
@@ -206,97 +273,175 @@ public class AuctionTemplate2 implements AuctionBehavior {
 	}
 	
 	
-	private double marginalCost(Task toBid) {
-	    return marginalCost(toBid, false);
+	private double marginalCost(Task toBid, Deadline bid) {
+	    return marginalCost(toBid, bid, false);
 	}
 	
-	private double marginalCost(Task toBid, boolean verbose) {
-	    return marginalCost(toBid, wonTasks, verbose);
+	private double marginalCost(Task toBid, Deadline bid, boolean verbose) {
+	    return marginalCost(toBid, wonTasks, bid, SEARCHES, verbose);
 	}
 	
-	private double marginalCost(Task toBid, Set<Task> wonTasks, boolean verbose) {
-	    long start = System.currentTimeMillis();
-	    // 1st step: compute cost/solution without toBid
-	    Solution without = Solution.selectInitialSolutionBis(agent.vehicles(), wonTasks);
-	    without = Solution.finalSolution(without, 10000, timeoutBid / 2);	    
-	    int costWithout = Solution.cost(without);
+	/**
+	 * Marginal cost of <code>toBid</code> over <code>wonTasks</code>, with <code>searches</code> searches on each side
+	 */
+	private double marginalCost(final Task toBid, final Set<Task> wonTasks, Deadline bid, int searches, boolean verbose) {
+	    // the solution of our own tasks is kept between auctions, so we only need to improve it a little
+	    boolean warm = wonTasks == this.wonTasks;
+	    
+	    // solutions computed in the background since the last auction, if it guessed this task
+	    Solution speculated = null;
+	    if (warm) {
+	        if (Solution.cost(speculator.base()) < Solution.cost(current)) {
+	            current = speculator.base();
+	        }
+	        speculated = speculator.lookup(toBid);
+	    }
 	    
-	    // 2nd step: compute cost/solution with toBid
-	    Set<Task> wonAndToBid = new HashSet<Task>(wonTasks);
+	    // 1st and 2nd steps: compute cost/solution without and with toBid, both at once and each for the whole bid
+	    final Set<Task> wonAndToBid = new HashSet<Task>(wonTasks);
 	    wonAndToBid.add(toBid);
 	    
-	    Solution with = Solution.selectInitialSolutionBis(agent.vehicles(), wonAndToBid);
-	    with = Solution.finalSolution(with, 10000, timeoutBid / 2);
+	    Solution without;
+	    Solution with;
+	    if (speculated != null) {
+	        without = current;
+	        with = speculated;
+	    } else {
+	        Solution[] solved;
+	        if (warm) {
+	            solved = solveBoth(Collections.nCopies(searches, current), Collections.nCopies(searches, insert(current, toBid)), 2000, bid);
+	        } else {
+	            solved = solveBoth(starts(wonTasks, searches), starts(wonAndToBid, searches), 10000, bid);
+	        }
+	        
+	        without = solved[0];
+	        with = solved[1] != null ? solved[1] : insert(without, toBid);
+	    }
+	    int costWithout = Solution.cost(without);
         int costWith = Solution.cost(with);
         int marginalCost = costWith - costWithout;
         
 	    
 	    // 3rd step: check if obvious non optimal solutions
-        Solution withoutEstimator = Solution.greedySolutionRemove(with, toBid); 
-        int costWithoutEstimator = Solution.cost(withoutEstimator);  
-        
-        Solution withEstimator = Solution.greedySolutionAdd(without, toBid);     
-        int costWithEstimator = Solution.cost(withEstimator);     
+        // the cheapest feasible insertion of toBid is a plan too, so "with" can never be worse than it
+        Solution withEstimator = insert(without, toBid);
+        int costWithEstimator = Solution.cost(withEstimator);
+        // a "with" above the insertion bound means one of the two searches is far from optimal, as a negative marginal
+        // cost does
+        boolean aboveInsertion = costWith > costWithEstimator;
+        if (aboveInsertion) {
+            with = withEstimator;
+            costWith = costWithEstimator;
+            marginalCost = costWith - costWithout;
+        }
         
-        int upperBound = costWithEstimator - costWithout;
         int count = 3;
-        boolean problemWithout = marginalCost < 0;
-        boolean problemWith = marginalCost > upperBound;
-        
-        while ((problemWith || problemWithout) && count > 0) {
+        while ((marginalCost < 0 || aboveInsertion) && count > 0 && !bid.expired()) {
             --count;
-            long now = System.currentTimeMillis();
-        
-            if (problemWithout) {
-                // Problem with "without" solution
-                // Try recompute "without" solution
-                if (verbose) {
-                    System.out.println("agent " + agent.id() + " has problem with \'without\', " + count);
-                }
-                
-                without = Solution.selectInitialSolutionBis(agent.vehicles(), wonTasks);
-                without = Solution.finalSolution(without, 10000, (timeoutBid - (now - start))/ 4);       
-                costWithout = Solution.cost(without);
+            aboveInsertion = false;
+            
+            // the searches of a retry go to the two sides in proportion to how much each can still gain over its lower
+            // bound, a side within epsilon of it is not searched again
+            double gapWithout = LowerBound.isNearOptimal(without) ? 0 : LowerBound.gap(without);
+            double gapWith = LowerBound.isNearOptimal(with) ? 0 : LowerBound.gap(with);
+            if (gapWithout <= 0 && gapWith <= 0) {
+                Metrics.count("retry.certified", 1);
+                break;
             }
             
-            if (problemWith) {
-                // Problem with "with" solution
-                // Recompute "with" solution
-                if (verbose) {
-                    System.out.println("agent " + agent.id() + " has problem with \'with\', " + count);   
-                }
-
-                with = Solution.selectInitialSolutionBis(agent.vehicles(), wonAndToBid);
-                with = Solution.finalSolution(with, 10000, (timeoutBid - (now - start)) / 4);
+            int searchesWithout = share(2 * searches, gapWithout, gapWith);
+            int searchesWith = 2 * searches - searchesWithout;
+            if (searchesWithout > 0) {
+                Metrics.count("retry.without", 1);
+            }
+            if (searchesWith > 0) {
+                Metrics.count("retry.with", 1);
+            }
+            if (verbose && Log.isEnabled(Log.DEBUG)) {
+                Log.debug("agent %d retries with %d searches on 'without' and %d on 'with', %d", agent.id(), searchesWithout, searchesWith, count);
+            }
+            
+            // the time left is shared with the retries to come
+            Solution[] solved = solveBoth(Collections.nCopies(searchesWithout, without), Collections.nCopies(searchesWith, with), 10000, bid.split(count + 1));
+            if (solved[0] != null) {
+                without = solved[0];
+                costWithout = Solution.cost(without);
+            }
+            if (solved[1] != null) {
+                with = solved[1];
                 costWith = Solution.cost(with);
-            }            
-
+            }
+            
             marginalCost = costWith - costWithout;
-            upperBound = costWithEstimator - costWithout;
-            problemWithout = marginalCost < 0;
-            problemWith = marginalCost > upperBound;
         }
         
-        // Still a problem
-        if (problemWithout) {
-            // without = withoutEstimator;
-            marginalCost = costWith - costWithoutEstimator;
-            if (verbose) {
-                System.out.println("agent " + agent.id() + " still has problem with \'without\', switching to estimator " + marginalCost);
+        solutions.offer(agent.vehicles(), wonTasks, without);
+        solutions.offer(agent.vehicles(), wonAndToBid, with);
+        
+        if (warm) {
+            if (costWithout < Solution.cost(current)) {
+                current = without;
             }
+            candidate = with;
+            candidateTask = toBid;
         }
         
-        if (problemWith) {
-            // with = withEstimator;
-            marginalCost = costWithEstimator - costWithout;
-            if (verbose) {
-                System.out.println("agent " + agent.id() + " still has problem with \'with\', switching to estimator " + marginalCost);
+        // Still a problem: "with" without toBid is a better "without"
+        if (marginalCost < 0) {
+            int costWithoutEstimator = Solution.cost(Solution.greedySolutionRemove(with, toBid));
+            marginalCost = costWith - costWithoutEstimator;
+            if (verbose && Log.isEnabled(Log.DEBUG)) {
+                Log.debug("agent %d still has problem with 'without', switching to estimator %d", agent.id(), marginalCost);
             }
         }
         
         return marginalCost;
 	}
 	
+	/**
+	 * Number of <code>searches</code> given to a side that can gain <code>gap</code> when the other one can gain
+	 * <code>other</code>: in proportion to its gap, but at least one if the gap is positive
+	 */
+	private static int share(int searches, double gap, double other) {
+	    if (gap <= 0) {
+	        return 0;
+	    }
+	    if (other <= 0) {
+	        return searches;
+	    }
+	    
+	    return Math.min(searches - 1, Math.max(1, (int) Math.round(searches * gap / (gap + other))));
+	}
+	
+	/**
+	 * <code>count</code> solutions to search <code>tasks</code> from, the solution of the last bid on the same set first
+	 * if there is one
+	 */
+	private List<Solution> starts(Set<Task> tasks, int count) {
+	    return solutions.starts(agent.vehicles(), tasks, count);
+	}
+	
+	/**
+	 * Searches from the <code>without</code> and <code>with</code> initial solutions at the same time until
+	 * <code>bid</code>, each side with the same share of the pool, and returns their best solutions in this order. A
+	 * side without initial solutions has a <code>null</code> solution
+	 */
+	private Solution[] solveBoth(List<Solution> without, List<Solution> with, int iter, Deadline bid) {
+	    List<List<Solution>> sides = new ArrayList<List<Solution>>();
+	    sides.add(without);
+	    sides.add(with);
+	    
+	    return AnytimeSolver.solveAll(sides, iter, bid);
+	}
+	
+	/**
+	 * Inserts <code>t</code> at its cheapest position in <code>s</code>, or as the greedy estimator does if no vehicle has room for it
+	 */
+	private Solution insert(Solution s, Task t) {
+	    Solution inserted = Solution.cheapestInsertion(s, t);
+	    return inserted != null ? inserted : Solution.greedySolutionAdd(s, t);
+	}
+	
 	@Override
 	public String toString() {
 	    return agent.id() + "";
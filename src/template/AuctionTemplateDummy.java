@@ -9,6 +9,7 @@ import logist.Measures;
 import logist.behavior.AuctionBehavior;
 import logist.agent.Agent;
 import logist.simulation.Vehicle;
+import logist.plan.Action;
 import logist.plan.Plan;
 import logist.task.Task;
 import logist.task.TaskDistribution;
@@ -25,6 +26,7 @@ import logist.topology.Topology.City;
 public class AuctionTemplateDummy implements AuctionBehavior {
 
 	private Topology topology;
+	private DistanceMatrix distances;
 	private TaskDistribution distribution;
 	private Agent agent;
 	private Random random;
@@ -36,6 +38,7 @@ public class AuctionTemplateDummy implements AuctionBehavior {
 			Agent agent) {
 
 		this.topology = topology;
+		this.distances = DistanceMatrix.of(topology);
 		this.distribution = distribution;
 		this.agent = agent;
 		this.vehicle = agent.vehicles().get(0);
@@ -54,28 +57,44 @@ public class AuctionTemplateDummy implements AuctionBehavior {
 	
 	@Override
 	public Long askPrice(Task task) {
+		long started = System.nanoTime();
 
 		if (vehicle.capacity() < task.weight)
 			return null;
 
-		long distanceTask = task.pickupCity.distanceUnitsTo(task.deliveryCity);
+		long distanceTask = distances.units(task.pickupCity, task.deliveryCity);
 		long distanceSum = distanceTask
-				+ currentCity.distanceUnitsTo(task.pickupCity);
+				+ distances.units(currentCity, task.pickupCity);
 		double marginalCost = Measures.unitsToKM(distanceSum
 				* vehicle.costPerKm());
 
 		double ratio = 1.0 + (random.nextDouble() * 0.05 * task.id);
 		double bid = ratio * marginalCost;
 
+		if (Metrics.isEnabled()) {
+			long nanos = System.nanoTime() - started;
+			Metrics.latency("agent" + agent.id() + ".bid", nanos);
+			Metrics.event("bid", "agent", agent.id(), "task", task.id, "ms", nanos / 1e6);
+		}
+
 		return (long) Math.round(bid);
 	}
 
 	@Override
 	public List<Plan> plan(List<Vehicle> vehicles, TaskSet tasks) {
+		long started = System.nanoTime();
 		
 //		System.out.println("Agent " + agent.id() + " has tasks " + tasks);
 
 		Plan planVehicle1 = naivePlan(vehicle, tasks);
+		
+		if (Metrics.isEnabled()) {
+			long nanos = System.nanoTime() - started;
+			Metrics.latency("agent" + agent.id() + ".plan", nanos);
+			Metrics.event("plan", "agent", agent.id(), "tasks", tasks.size(), "reward", naiveReward(tasks),
+					"cost", naiveCost(vehicle, tasks), "ms", nanos / 1e6);
+			Metrics.flush();
+		}
 
 		List<Plan> plans = new ArrayList<Plan>();
 		plans.add(planVehicle1);
@@ -91,14 +110,14 @@ public class AuctionTemplateDummy implements AuctionBehavior {
 
 		for (Task task : tasks) {
 			// move: current city => pickup location
-			for (City city : current.pathTo(task.pickupCity))
-				plan.appendMove(city);
+			for (Action move : distances.moves(current, task.pickupCity))
+				plan.append(move);
 
 			plan.appendPickup(task);
 
 			// move: pickup location => delivery location
-			for (City city : task.path())
-				plan.appendMove(city);
+			for (Action move : distances.moves(task.pickupCity, task.deliveryCity))
+				plan.append(move);
 
 			plan.appendDelivery(task);
 
@@ -107,4 +126,26 @@ public class AuctionTemplateDummy implements AuctionBehavior {
 		}
 		return plan;
 	}
+
+	private long naiveReward(TaskSet tasks) {
+		long reward = 0;
+		for (Task task : tasks)
+			reward += task.reward;
+
+		return reward;
+	}
+
+	/**
+	 * Cost of the plan built by <code>naivePlan</code>
+	 */
+	private double naiveCost(Vehicle vehicle, TaskSet tasks) {
+		City current = vehicle.getCurrentCity();
+		long units = 0;
+
+		for (Task task : tasks) {
+			units += distances.units(current, task.pickupCity) + distances.units(task.pickupCity, task.deliveryCity);
+			current = task.deliveryCity;
+		}
+		return Measures.unitsToKM(units * vehicle.costPerKm());
+	}
 }
@@ -0,0 +1,224 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.topology.Topology.City;
+
+/**
+ * Expected marginal cost of a task over the tasks that could be auctioned next. Every possible next task, a phantom
+ * task between two cities, weighs the probability the distribution gives it. Phantom tasks are evaluated in parallel,
+ * most likely first, until the probability left is too small to change the estimate or the deadline is reached, and
+ * every evaluation is remembered for the same tasks won, task to bid and phantom task
+ */
+public class BayesianEstimator {
+    
+    /**
+     * Marginal cost of <code>toBid</code> when we have <code>won</code>, the phantom task included. Called from several
+     * threads at once
+     */
+    public interface MarginalCost {
+        double of(Task toBid, Set<Task> won, Deadline deadline);
+    }
+    
+    private final static int MAX_MEMO = 4096;
+    
+    private final static ExecutorService executor = Executors.newFixedThreadPool(AnytimeSolver.parallelism(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "bayesian-estimator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
+    private final TaskDistribution distribution;
+    // probability left to evaluate under which the estimate is considered done
+    private final double epsilon;
+    private final Map<Key, Double> memo;
+    
+    private static class Key {
+        
+        private final long won;
+        private final int toBid;
+        private final int from;
+        private final int to;
+        
+        private Key(long won, int toBid, int from, int to) {
+            this.won = won;
+            this.toBid = toBid;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            
+            Key that = (Key) o;
+            return won == that.won && toBid == that.toBid && from == that.from && to == that.to;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (int) (won ^ (won >>> 32)) * 31 * 31 * 31 + toBid * 31 * 31 + from * 31 + to;
+        }
+    }
+    
+    public BayesianEstimator(TaskDistribution distribution, double epsilon) {
+        this.distribution = distribution;
+        this.epsilon = epsilon;
+        // the least recently used evaluations are dropped first
+        this.memo = Collections.synchronizedMap(new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+                return size() > MAX_MEMO;
+            }
+        });
+    }
+    
+    /**
+     * Average of <code>marginalCost</code> over the phantom tasks between each pair of <code>links</code>, weighted by
+     * their probability. Pairs whose evaluation did not fit before <code>deadline</code> are left out of the average
+     */
+    public double estimate(final Task toBid, final Set<Task> won, List<City[]> links, Deadline deadline, final MarginalCost marginalCost) {
+        List<City[]> candidates = mostLikely(links);
+        long fingerprint = fingerprint(won);
+        
+        double cost = 0;
+        double weights = 0;
+        
+        int parallelism = AnytimeSolver.parallelism();
+        for (int first = 0; first < candidates.size() && !deadline.expired(); first += parallelism) {
+            int last = Math.min(candidates.size(), first + parallelism);
+            int wavesLeft = (candidates.size() - first + parallelism - 1) / parallelism;
+            final Deadline wave = deadline.split(wavesLeft);
+            
+            List<Key> keys = new ArrayList<Key>();
+            // the memo can drop an entry while the wave is collected, so what it knew is kept here
+            List<Double> memoized = new ArrayList<Double>();
+            List<Future<Double>> evaluations = new ArrayList<Future<Double>>();
+            
+            for (int i = first; i < last; ++i) {
+                final City from = candidates.get(i)[0];
+                final City to = candidates.get(i)[1];
+                Key key = new Key(fingerprint, toBid.id, from.id, to.id);
+                keys.add(key);
+                Double known = memo.get(key);
+                memoized.add(known);
+                
+                if (known != null) {
+                    evaluations.add(null);
+                } else {
+                    evaluations.add(executor.submit(new Callable<Double>() {
+                        @Override
+                        public Double call() {
+                            Set<Task> includePotential = new HashSet<Task>(won);
+                            includePotential.add(new Task(-1, from, to, 0, 0));
+                            
+                            return marginalCost.of(toBid, includePotential, wave);
+                        }
+                    }));
+                }
+            }
+            
+            for (int i = 0; i < keys.size(); ++i) {
+                Double evaluation = memoized.get(i);
+                if (evaluation == null) {
+                    evaluation = await(evaluations.get(i), wave);
+                }
+                
+                if (evaluation != null) {
+                    City[] link = candidates.get(first + i);
+                    double weight = distribution.probability(link[0], link[1]);
+                    weights += weight;
+                    cost += weight * evaluation;
+                    remember(keys.get(i), evaluation);
+                }
+            }
+        }
+        
+        return weights > 0 ? cost / weights : 0;
+    }
+    
+    /**
+     * The most likely of <code>links</code>, most likely first, leaving out the least likely ones as long as their
+     * probabilities add up to less than <code>epsilon</code> of the total
+     */
+    private List<City[]> mostLikely(List<City[]> links) {
+        List<City[]> sorted = new ArrayList<City[]>(links);
+        Collections.sort(sorted, new Comparator<City[]>() {
+            @Override
+            public int compare(City[] a, City[] b) {
+                return Double.compare(distribution.probability(b[0], b[1]), distribution.probability(a[0], a[1]));
+            }
+        });
+        
+        double total = 0;
+        for (City[] link : sorted) {
+            total += distribution.probability(link[0], link[1]);
+        }
+        
+        double left = total;
+        int size = 0;
+        while (size < sorted.size() && left > epsilon * total) {
+            left -= distribution.probability(sorted.get(size)[0], sorted.get(size)[1]);
+            ++size;
+        }
+        
+        return sorted.subList(0, size);
+    }
+    
+    private Double await(Future<Double> evaluation, Deadline deadline) {
+        try {
+            return evaluation.get(Math.max(0, deadline.remaining()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            evaluation.cancel(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        
+        return null;
+    }
+    
+    private void remember(Key key, double evaluation) {
+        memo.put(key, evaluation);
+    }
+    
+    /**
+     * Hash of a set of tasks that does not depend on the iteration order
+     */
+    private static long fingerprint(Set<Task> tasks) {
+        long fingerprint = 0;
+        for (Task t : tasks) {
+            long z = t.id * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            fingerprint += z ^ (z >>> 31);
+        }
+        
+        return fingerprint;
+    }
+}
@@ -0,0 +1,80 @@
+package template;
+
+/**
+ * A point in time, in <code>System.nanoTime</code> time, by which a search must have returned. A deadline can be split
+ * to give a part of the remaining time to a sub-search, and cancelling it also cancels the deadlines split from it
+ */
+public class Deadline {
+    
+    private final long end;
+    private final Deadline parent;
+    private volatile boolean cancelled;
+    
+    private Deadline(long end, Deadline parent) {
+        this.end = end;
+        this.parent = parent;
+        this.cancelled = false;
+    }
+    
+    /**
+     * Deadline <code>millis</code> milliseconds from now
+     */
+    public static Deadline in(long millis) {
+        return new Deadline(System.nanoTime() + millis * 1000000L, null);
+    }
+    
+    /**
+     * Deadline that is only reached once cancelled
+     */
+    public static Deadline never() {
+        return new Deadline(System.nanoTime() + Long.MAX_VALUE / 2, null);
+    }
+    
+    /**
+     * Deadline for one of the logist timeouts (setup, bid or plan). A tenth of it, but no more than 500 ms, is kept for
+     * what the agent does once the search returned
+     */
+    public static Deadline forTimeout(long timeoutMillis) {
+        return in(timeoutMillis - Math.min(500, timeoutMillis / 10));
+    }
+    
+    /**
+     * Sub-deadline ending once one <code>parts</code>-th of the remaining time has elapsed
+     */
+    public Deadline split(int parts) {
+        return new Deadline(System.nanoTime() + Math.max(0, remaining()) / parts, this);
+    }
+    
+    /**
+     * Sub-deadline ending <code>millis</code> milliseconds from now, or when this one does if it is sooner
+     */
+    public Deadline within(long millis) {
+        return new Deadline(System.nanoTime() + Math.max(0, Math.min(remaining(), millis * 1000000L)), this);
+    }
+    
+    /**
+     * Remaining time in nanoseconds, negative once passed
+     */
+    public long remaining() {
+        return end - System.nanoTime();
+    }
+    
+    public boolean expired() {
+        return !hasTimeFor(0);
+    }
+    
+    /**
+     * Whether something taking <code>nanos</code> nanoseconds can still be done before the deadline
+     */
+    public boolean hasTimeFor(long nanos) {
+        return !isCancelled() && remaining() > nanos;
+    }
+    
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    private boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+}
@@ -0,0 +1,200 @@
+package template;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import logist.Measures;
+import logist.plan.Action;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Shortest distances between every pair of cities of a topology, stored in a flat array indexed by <code>City.id</code>.
+ * A matrix is built once per topology and shared by every agent and solution using it
+ */
+public class DistanceMatrix {
+    
+    private final static Map<Topology, DistanceMatrix> byTopology = new HashMap<Topology, DistanceMatrix>();
+    private final static Map<City, DistanceMatrix> byCity = new IdentityHashMap<City, DistanceMatrix>();
+    
+    private final City[] cities;
+    private final int size;
+    private final long[] units;
+    private int[] nextHops;
+    // moves from a city to another, indexed as the distances, built the first time they are asked for
+    private final AtomicReferenceArray<List<Action>> moves;
+    
+    private DistanceMatrix(List<City> cityList) {
+        int maxId = 0;
+        for (City c : cityList) {
+            maxId = Integer.max(maxId, c.id);
+        }
+        
+        this.size = maxId + 1;
+        this.cities = new City[size];
+        this.units = new long[size * size];
+        this.moves = new AtomicReferenceArray<List<Action>>(size * size);
+        
+        for (City from : cityList) {
+            cities[from.id] = from;
+            for (City to : cityList) {
+                units[from.id * size + to.id] = from.distanceUnitsTo(to);
+            }
+        }
+    }
+    
+    /**
+     * Matrix of <code>size</code> cities given as a flat array of distance units, without any logist <code>City</code>
+     * behind it. Such a matrix has no paths, it is meant for benchmarks
+     */
+    DistanceMatrix(long[] units, int size) {
+        this.size = size;
+        this.cities = new City[size];
+        this.units = units.clone();
+        this.moves = new AtomicReferenceArray<List<Action>>(size * size);
+    }
+    
+    /**
+     * Matrix of the given topology, built the first time it is asked for
+     */
+    public static synchronized DistanceMatrix of(Topology topology) {
+        DistanceMatrix matrix = byTopology.get(topology);
+        
+        if (matrix == null) {
+            matrix = register(topology.cities());
+            byTopology.put(topology, matrix);
+        }
+        
+        return matrix;
+    }
+    
+    /**
+     * Matrix of the topology <code>city</code> belongs to. If no agent built it yet, the cities are found by following
+     * the routes from <code>city</code>
+     */
+    public static synchronized DistanceMatrix of(City city) {
+        DistanceMatrix matrix = byCity.get(city);
+        
+        if (matrix == null) {
+            List<City> reached = new ArrayList<City>();
+            Map<City, Boolean> visited = new IdentityHashMap<City, Boolean>();
+            Deque<City> toVisit = new ArrayDeque<City>();
+            
+            toVisit.add(city);
+            visited.put(city, true);
+            while (!toVisit.isEmpty()) {
+                City c = toVisit.poll();
+                reached.add(c);
+                for (City n : c.neighbors()) {
+                    if (visited.put(n, true) == null) {
+                        toVisit.add(n);
+                    }
+                }
+            }
+            
+            matrix = register(reached);
+        }
+        
+        return matrix;
+    }
+    
+    private static DistanceMatrix register(List<City> cities) {
+        DistanceMatrix matrix = new DistanceMatrix(cities);
+        for (City c : cities) {
+            byCity.put(c, matrix);
+        }
+        
+        return matrix;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public City city(int id) {
+        return cities[id];
+    }
+    
+    public long units(int from, int to) {
+        return units[from * size + to];
+    }
+    
+    public long units(City from, City to) {
+        return units[from.id * size + to.id];
+    }
+    
+    public double km(City from, City to) {
+        return Measures.unitsToKM(units[from.id * size + to.id]);
+    }
+    
+    /**
+     * Cities visited when going from <code>from</code> to <code>to</code>, <code>from</code> excluded, as
+     * <code>City.pathTo</code> does
+     */
+    public List<City> path(City from, City to) {
+        int[] hops = nextHops();
+        
+        if (from.id == to.id) {
+            return Collections.emptyList();
+        }
+        
+        List<City> path = new ArrayList<City>();
+        int current = from.id;
+        while (current != to.id) {
+            current = hops[current * size + to.id];
+            path.add(cities[current]);
+        }
+        
+        return path;
+    }
+    
+    /**
+     * The <code>Action.Move</code> of every city of <code>path(from, to)</code>. The list is built once per pair of
+     * cities and shared by every plan, so it cannot be modified
+     */
+    public List<Action> moves(City from, City to) {
+        int index = from.id * size + to.id;
+        List<Action> path = moves.get(index);
+        
+        if (path == null) {
+            List<Action> built = new ArrayList<Action>();
+            for (City c : path(from, to)) {
+                built.add(new Action.Move(c));
+            }
+            
+            moves.compareAndSet(index, null, Collections.unmodifiableList(built));
+            path = moves.get(index);
+        }
+        
+        return path;
+    }
+    
+    /**
+     * The next-hop table is only needed to build plans, so it is computed the first time a path is asked for
+     */
+    private synchronized int[] nextHops() {
+        if (nextHops == null) {
+            int[] hops = new int[size * size];
+            
+            for (City from : cities) {
+                for (City to : cities) {
+                    if (from != null && to != null && from != to) {
+                        List<City> path = from.pathTo(to);
+                        hops[from.id * size + to.id] = path.isEmpty() ? to.id : path.get(0).id;
+                    }
+                }
+            }
+            
+            nextHops = hops;
+        }
+        
+        return nextHops;
+    }
+}
@@ -0,0 +1,155 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import logist.simulation.Vehicle;
+import logist.topology.Topology.City;
+
+/**
+ * The vehicles of a solution, indexed from 0 to k-1. A fleet never changes once created so it is shared by every copy of a solution
+ */
+public class Fleet {
+    
+    /**
+     * Number of other vehicles a task is moved to from a vehicle, the ones starting closest to it
+     */
+    public final static int NEARBY = 8;
+    
+    private final Vehicle[] vehicles;
+    private final int[] capacities;
+    private final int[] costsPerKm;
+    private final int[] starts;
+    private final DistanceMatrix distances;
+    private final Map<Vehicle, Integer> indices;
+    private final List<Vehicle> list;
+    private final int[][] nearby;
+    
+    public Fleet(List<Vehicle> vehicles) {
+        int k = vehicles.size();
+        
+        this.vehicles = vehicles.toArray(new Vehicle[k]);
+        this.capacities = new int[k];
+        this.costsPerKm = new int[k];
+        this.starts = new int[k];
+        this.indices = new HashMap<Vehicle, Integer>();
+        
+        for (int i = 0; i < k; ++i) {
+            capacities[i] = this.vehicles[i].capacity();
+            costsPerKm[i] = this.vehicles[i].costPerKm();
+            starts[i] = this.vehicles[i].getCurrentCity().id;
+            indices.put(this.vehicles[i], i);
+        }
+        
+        this.distances = k == 0 ? null : DistanceMatrix.of(this.vehicles[0].getCurrentCity());
+        this.list = Collections.unmodifiableList(new ArrayList<Vehicle>(vehicles));
+        this.nearby = nearest(starts, distances);
+    }
+    
+    /**
+     * Fleet of vehicles only known by their capacity, cost and starting city, without any logist <code>Vehicle</code>
+     * behind them. Such a fleet can be searched but not turned into plans, it is meant for benchmarks
+     */
+    Fleet(int[] capacities, int[] costsPerKm, int[] starts, DistanceMatrix distances) {
+        int k = capacities.length;
+        
+        this.vehicles = new Vehicle[k];
+        this.capacities = capacities.clone();
+        this.costsPerKm = costsPerKm.clone();
+        this.starts = starts.clone();
+        this.indices = new HashMap<Vehicle, Integer>();
+        this.distances = distances;
+        this.list = Collections.unmodifiableList(Arrays.asList(this.vehicles));
+        this.nearby = nearest(this.starts, distances);
+    }
+    
+    /**
+     * For every vehicle, the <code>NEARBY</code> other vehicles whose starting cities are the closest to its own. With
+     * few enough vehicles, they are simply all the others in index order
+     */
+    private static int[][] nearest(final int[] starts, final DistanceMatrix distances) {
+        int k = starts.length;
+        int[][] nearest = new int[k][];
+        
+        for (int v = 0; v < k; ++v) {
+            Integer[] others = new Integer[k - 1];
+            for (int u = 0, i = 0; u < k; ++u) {
+                if (u != v) {
+                    others[i++] = u;
+                }
+            }
+            
+            if (k - 1 > NEARBY) {
+                final int from = starts[v];
+                Arrays.sort(others, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return Long.compare(distances.units(from, starts[a]), distances.units(from, starts[b]));
+                    }
+                });
+            }
+            
+            nearest[v] = new int[Math.min(k - 1, NEARBY)];
+            for (int i = 0; i < nearest[v].length; ++i) {
+                nearest[v][i] = others[i];
+            }
+        }
+        
+        return nearest;
+    }
+    
+    public int size() {
+        return vehicles.length;
+    }
+    
+    public Vehicle get(int v) {
+        return vehicles[v];
+    }
+    
+    /**
+     * Index of <code>v</code> in this fleet, -1 if it does not belong to it
+     */
+    public int indexOf(Vehicle v) {
+        Integer i = indices.get(v);
+        return i == null ? -1 : i;
+    }
+    
+    public int capacity(int v) {
+        return capacities[v];
+    }
+    
+    public int costPerKm(int v) {
+        return costsPerKm[v];
+    }
+    
+    public City start(int v) {
+        return vehicles[v].getCurrentCity();
+    }
+    
+    /**
+     * Id of the city vehicle <code>v</code> starts from
+     */
+    public int startId(int v) {
+        return starts[v];
+    }
+    
+    /**
+     * Vehicles a task of <code>v</code> can be moved to by a single move, see <code>NEARBY</code>
+     */
+    public int[] nearby(int v) {
+        return nearby[v];
+    }
+    
+    public DistanceMatrix distances() {
+        return distances;
+    }
+    
+    public List<Vehicle> vehicles() {
+        return list;
+    }
+}
@@ -0,0 +1,410 @@
+package template;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+
+/**
+ * Adaptive large neighborhood search: at each iteration, a destroy operator takes a few tasks out of the current
+ * solution and a repair operator puts them back where they cost the least without exceeding any capacity. The new
+ * solution replaces the current one if it is not much worse, the tolerance going to zero with the time left. Operators
+ * are drawn by roulette with weights that follow how well they did in the last segment of iterations
+ */
+public class LargeNeighborhoodSearch implements Optimizer {
+    
+    private final static int RANDOM = 0;
+    private final static int WORST = 1;
+    private final static int RELATED = 2;
+    private final static int ROUTE = 3;
+    private final static int DESTROYS = 4;
+    
+    private final static int CHEAPEST = 0;
+    private final static int REGRET = 1;
+    private final static int REPAIRS = 2;
+    
+    // scores of an operator when its solution is a new best, better than the current one, or only accepted
+    private final static double NEW_BEST = 33;
+    private final static double BETTER = 9;
+    private final static double ACCEPTED = 13;
+    
+    private final static int SEGMENT = 100;
+    private final static int VISITED = 1 << 12;
+    private final static double REACTION = 0.1;
+    // the bigger, the more the worst destroy operator sticks to the worst tasks
+    private final static double WORST_BIAS = 3;
+    
+    private final int maxRemoved;
+    private final int regret;
+    private final double tolerance;
+    
+    /**
+     * Search removing at most 40 tasks at a time, repairing with regret-3 and accepting solutions up to 5% worse at
+     * first
+     */
+    public LargeNeighborhoodSearch() {
+        this(40, 3, 0.05);
+    }
+    
+    public LargeNeighborhoodSearch(int maxRemoved, int regret, double tolerance) {
+        this.maxRemoved = maxRemoved;
+        this.regret = regret;
+        this.tolerance = tolerance;
+    }
+    
+    @Override
+    public Solution optimize(Solution initS, int iter, Deadline deadline, SplittableRandom random, AnytimeSolver solver) {
+        int[] present = presentTasks(initS);
+        int n = present.length;
+        if (n == 0) {
+            return initS;
+        }
+        
+        Solution current = initS;
+        double currentCost = Solution.totalCost(initS);
+        
+        Solution best = initS;
+        double bestCost = currentCost;
+        
+        double[] destroyWeights = { 1, 1, 1, 1 };
+        double[] repairWeights = { 1, 1 };
+        double[] destroyScores = new double[DESTROYS];
+        double[] repairScores = new double[REPAIRS];
+        int[] destroyUses = new int[DESTROYS];
+        int[] repairUses = new int[REPAIRS];
+        
+        int[] removed = new int[n];
+        // solutions already evaluated are not scored again, operators do not earn points for going around in circles
+        VisitedCache visited = new VisitedCache(VISITED);
+        visited.put(initS.fingerprint(), currentCost);
+        int maxQ = Math.min(maxRemoved, Math.max(2, n / 3));
+        long budget = Math.max(1, deadline.remaining());
+        
+        // running average of the duration of an iteration
+        long iterationNanos = 0;
+        long last = System.nanoTime();
+        
+        int iteration = 1;
+        long evaluated = 0;
+        for (; iteration <= iter; ++iteration) {
+            if (!deadline.hasTimeFor(iterationNanos)) {
+                break;
+            }
+            
+            int destroy = roulette(destroyWeights, random);
+            int repair = roulette(repairWeights, random);
+            
+            Solution candidate = new Solution(current);
+            int q = Math.min(n, 1 + random.nextInt(maxQ));
+            int count = destroy(candidate, destroy, present, q, removed, random);
+            
+            if (repair(candidate, repair, removed, count, deadline, random) && visited.get(candidate.fingerprint()) == null) {
+                ++evaluated;
+                double cost = Solution.totalCost(candidate);
+                visited.put(candidate.fingerprint(), cost);
+                double used = Math.max(1 - (double) deadline.remaining() / budget, (double) iteration / iter);
+                
+                double score = 0;
+                if (cost < bestCost) {
+                    best = candidate;
+                    bestCost = cost;
+                    score = NEW_BEST;
+                    
+                    if (solver != null) {
+                        solver.offer(best, bestCost);
+                    }
+                } else if (cost < currentCost) {
+                    score = BETTER;
+                } else if (cost < currentCost * (1 + tolerance * (1 - Math.min(1, used)))) {
+                    score = ACCEPTED;
+                }
+                
+                if (score > 0) {
+                    current = candidate;
+                    currentCost = cost;
+                }
+                
+                destroyScores[destroy] += score;
+                repairScores[repair] += score;
+            }
+            
+            ++destroyUses[destroy];
+            ++repairUses[repair];
+            
+            if (iteration % SEGMENT == 0) {
+                adapt(destroyWeights, destroyScores, destroyUses);
+                adapt(repairWeights, repairScores, repairUses);
+            }
+            
+            long now = System.nanoTime();
+            iterationNanos = (3 * iterationNanos + (now - last)) / 4;
+            last = now;
+        }
+        
+        if (solver != null) {
+            solver.report(iteration - 1, evaluated);
+        }
+        
+        return best;
+    }
+    
+    /**
+     * Takes about <code>q</code> tasks out of <code>s</code> with the given operator, writes them in
+     * <code>removed</code> and returns how many were taken out
+     */
+    private int destroy(Solution s, int operator, int[] present, int q, int[] removed, SplittableRandom random) {
+        int n = present.length;
+        
+        if (operator == ROUTE) {
+            int v = Solution.randomNonEmptyVehicle(s, random);
+            int count = 0;
+            while (s.length(v) > 0) {
+                int t = TaskTable.taskIndex(s.action(v, 0));
+                s.removeTask(v, t);
+                removed[count++] = t;
+            }
+            
+            return count;
+        }
+        
+        if (operator == RANDOM) {
+            int[] shuffled = present.clone();
+            for (int k = 0; k < q; ++k) {
+                int other = k + random.nextInt(n - k);
+                int t = shuffled[other];
+                shuffled[other] = shuffled[k];
+                removed[k] = t;
+                s.removeTask(s.vehicleOf(t), t);
+            }
+            
+            return q;
+        }
+        
+        // the other operators rank the tasks, by cost saved when removed or by closeness to a random task
+        double[] keys = new double[n];
+        Integer[] order = new Integer[n];
+        
+        if (operator == WORST) {
+            for (int k = 0; k < n; ++k) {
+                keys[k] = s.removalDelta(s.vehicleOf(present[k]), present[k]);
+                order[k] = k;
+            }
+        } else {
+            TaskTable tasks = s.tasks();
+            DistanceMatrix distances = s.fleet().distances();
+            int seed = present[random.nextInt(n)];
+            
+            for (int k = 0; k < n; ++k) {
+                int t = present[k];
+                keys[k] = distances.units(tasks.cityId(TaskTable.pickup(seed)), tasks.cityId(TaskTable.pickup(t)))
+                        + distances.units(tasks.cityId(TaskTable.delivery(seed)), tasks.cityId(TaskTable.delivery(t)));
+                order[k] = k;
+            }
+        }
+        
+        final double[] sortKeys = keys;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(sortKeys[a], sortKeys[b]);
+            }
+        });
+        
+        if (operator == RELATED) {
+            for (int k = 0; k < q; ++k) {
+                removed[k] = present[order[k]];
+                s.removeTask(s.vehicleOf(removed[k]), removed[k]);
+            }
+            
+            return q;
+        }
+        
+        // worst removal is randomized so that it does not always pick the same tasks
+        boolean[] taken = new boolean[n];
+        for (int k = 0; k < q; ++k) {
+            int rank = (int) (Math.pow(random.nextDouble(), WORST_BIAS) * (n - k));
+            int index = 0;
+            while (taken[order[index]] || rank > 0) {
+                if (!taken[order[index]]) {
+                    --rank;
+                }
+                ++index;
+            }
+            
+            taken[order[index]] = true;
+            removed[k] = present[order[index]];
+            s.removeTask(s.vehicleOf(removed[k]), removed[k]);
+        }
+        
+        return q;
+    }
+    
+    /**
+     * Puts the <code>count</code> tasks of <code>removed</code> back in <code>s</code> with the given operator, returns
+     * false if one of them does not fit anywhere or if <code>deadline</code> expires first
+     */
+    private boolean repair(Solution s, int operator, int[] removed, int count, Deadline deadline, SplittableRandom random) {
+        int vehicles = s.fleet().size();
+        int[] position = new int[2];
+        
+        if (operator == CHEAPEST) {
+            for (int k = count - 1; k > 0; --k) {
+                int other = random.nextInt(k + 1);
+                int t = removed[other];
+                removed[other] = removed[k];
+                removed[k] = t;
+            }
+            
+            for (int k = 0; k < count; ++k) {
+                if (deadline.expired()) {
+                    return false;
+                }
+                
+                int bestVehicle = -1;
+                int bestI = 0;
+                int bestJ = 0;
+                double bestDelta = Double.POSITIVE_INFINITY;
+                
+                for (int v = 0; v < vehicles; ++v) {
+                    double delta = s.insertionDelta(v, removed[k], position);
+                    if (delta < bestDelta) {
+                        bestDelta = delta;
+                        bestVehicle = v;
+                        bestI = position[0];
+                        bestJ = position[1];
+                    }
+                }
+                
+                if (bestVehicle < 0) {
+                    return false;
+                }
+                s.insertTask(bestVehicle, removed[k], bestI, bestJ);
+            }
+            
+            return true;
+        }
+        
+        // regret-k: the best insertion of every task in every vehicle is kept, and only the column of the vehicle that
+        // just received a task is computed again
+        double[][] deltas = new double[count][vehicles];
+        int[][] is = new int[count][vehicles];
+        int[][] js = new int[count][vehicles];
+        boolean[] inserted = new boolean[count];
+        
+        for (int k = 0; k < count; ++k) {
+            if (deadline.expired()) {
+                return false;
+            }
+            
+            for (int v = 0; v < vehicles; ++v) {
+                deltas[k][v] = s.insertionDelta(v, removed[k], position);
+                is[k][v] = position[0];
+                js[k][v] = position[1];
+            }
+        }
+        
+        double[] sorted = new double[vehicles];
+        for (int left = count; left > 0; --left) {
+            if (deadline.expired()) {
+                return false;
+            }
+            
+            int chosen = -1;
+            double chosenRegret = Double.NEGATIVE_INFINITY;
+            double chosenDelta = Double.POSITIVE_INFINITY;
+            
+            for (int k = 0; k < count; ++k) {
+                if (inserted[k]) {
+                    continue;
+                }
+                
+                System.arraycopy(deltas[k], 0, sorted, 0, vehicles);
+                Arrays.sort(sorted);
+                if (sorted[0] == Double.POSITIVE_INFINITY) {
+                    return false;
+                }
+                
+                // a task that fits in fewer vehicles than the regret looks at is urgent
+                double regretValue = 0;
+                for (int h = 1; h < Math.min(regret, vehicles); ++h) {
+                    regretValue += sorted[h] == Double.POSITIVE_INFINITY ? 1e12 : sorted[h] - sorted[0];
+                }
+                
+                if (regretValue > chosenRegret || (regretValue == chosenRegret && sorted[0] < chosenDelta)) {
+                    chosen = k;
+                    chosenRegret = regretValue;
+                    chosenDelta = sorted[0];
+                }
+            }
+            
+            int bestVehicle = 0;
+            for (int v = 1; v < vehicles; ++v) {
+                if (deltas[chosen][v] < deltas[chosen][bestVehicle]) {
+                    bestVehicle = v;
+                }
+            }
+            
+            s.insertTask(bestVehicle, removed[chosen], is[chosen][bestVehicle], js[chosen][bestVehicle]);
+            inserted[chosen] = true;
+            
+            for (int k = 0; k < count; ++k) {
+                if (!inserted[k]) {
+                    deltas[k][bestVehicle] = s.insertionDelta(bestVehicle, removed[k], position);
+                    is[k][bestVehicle] = position[0];
+                    js[k][bestVehicle] = position[1];
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    private static int roulette(double[] weights, SplittableRandom random) {
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+        
+        double r = random.nextDouble() * total;
+        for (int o = 0; o < weights.length - 1; ++o) {
+            r -= weights[o];
+            if (r < 0) {
+                return o;
+            }
+        }
+        
+        return weights.length - 1;
+    }
+    
+    /**
+     * Moves the weights towards the average score of each operator over the last segment, then starts a new segment
+     */
+    private static void adapt(double[] weights, double[] scores, int[] uses) {
+        for (int o = 0; o < weights.length; ++o) {
+            if (uses[o] > 0) {
+                weights[o] = (1 - REACTION) * weights[o] + REACTION * scores[o] / uses[o];
+            }
+            // an operator that never scores keeps a small chance of being drawn
+            weights[o] = Math.max(weights[o], 0.1);
+            scores[o] = 0;
+            uses[o] = 0;
+        }
+    }
+    
+    /**
+     * Indices of the tasks that are in the plans of <code>s</code>
+     */
+    private static int[] presentTasks(Solution s) {
+        int count = 0;
+        int[] present = new int[s.tasks().size()];
+        
+        for (int v = 0; v < s.fleet().size(); ++v) {
+            for (int i = 0; i < s.length(v); ++i) {
+                if (TaskTable.isPickup(s.action(v, i))) {
+                    present[count++] = TaskTable.taskIndex(s.action(v, i));
+                }
+            }
+        }
+        
+        return Arrays.copyOf(present, count);
+    }
+}
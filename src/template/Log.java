@@ -0,0 +1,59 @@
+package template;
+
+/**
+ * Console output of the agents, filtered by level. The level is read from the system property
+ * <code>template.log</code> (<code>off</code>, <code>error</code>, <code>info</code> or <code>debug</code>, default
+ * <code>info</code>). Messages are formatted with <code>String.format</code> only when their level is enabled, but
+ * the caller still builds the array of arguments and boxes the primitives, so the messages of hot paths are guarded
+ * by <code>isEnabled</code>
+ */
+public final class Log {
+    
+    public final static int OFF = 0;
+    public final static int ERROR = 1;
+    public final static int INFO = 2;
+    public final static int DEBUG = 3;
+    
+    private static volatile int level = parse(System.getProperty("template.log", "info"));
+    
+    private Log() {
+    }
+    
+    public static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+    
+    public static boolean isEnabled(int messageLevel) {
+        return messageLevel <= level;
+    }
+    
+    public static void error(String format, Object... args) {
+        if (ERROR <= level) {
+            System.err.println(String.format(format, args));
+        }
+    }
+    
+    public static void info(String format, Object... args) {
+        if (INFO <= level) {
+            System.out.println(String.format(format, args));
+        }
+    }
+    
+    public static void debug(String format, Object... args) {
+        if (DEBUG <= level) {
+            System.out.println(String.format(format, args));
+        }
+    }
+    
+    private static int parse(String name) {
+        if (name.equalsIgnoreCase("off")) {
+            return OFF;
+        } else if (name.equalsIgnoreCase("error")) {
+            return ERROR;
+        } else if (name.equalsIgnoreCase("debug")) {
+            return DEBUG;
+        }
+        
+        return INFO;
+    }
+}
@@ -0,0 +1,109 @@
+package template;
+
+import logist.Measures;
+
+/**
+ * Lower bounds on the cost of carrying the tasks of a solution with its fleet, whatever the plans. The bound is the
+ * largest of two relaxations over the distance matrix:
+ * <ul>
+ * <li>every city where a task is picked up or delivered, and where no vehicle starts, has to be entered at least once,
+ * from the closest other such city or starting city</li>
+ * <li>every task has to be carried by some vehicle from its starting city to the pickup, then to the delivery</li>
+ * </ul>
+ * Both ignore capacities and the other tasks, so they are cheap but loose. A solution whose cost is within
+ * <code>EPSILON</code> of the bound cannot be improved by much and need not be searched any further
+ */
+public final class LowerBound {
+    
+    /**
+     * Relative gap to the bound under which a solution is considered optimal
+     */
+    public final static double EPSILON = 0.01;
+    
+    private LowerBound() {
+    }
+    
+    /**
+     * Lower bound on the cost of any solution carrying the tasks planned in <code>s</code> with the fleet of
+     * <code>s</code>
+     */
+    public static double of(Solution s) {
+        Fleet fleet = s.fleet();
+        TaskTable tasks = s.tasks();
+        DistanceMatrix distances = fleet.distances();
+        if (distances == null) {
+            return 0;
+        }
+        
+        boolean[] required = new boolean[distances.size()];
+        boolean[] starts = new boolean[distances.size()];
+        int minCostPerKm = Integer.MAX_VALUE;
+        for (int v = 0; v < fleet.size(); ++v) {
+            starts[fleet.startId(v)] = true;
+            minCostPerKm = Math.min(minCostPerKm, fleet.costPerKm(v));
+        }
+        
+        double carrying = 0;
+        for (int v = 0; v < fleet.size(); ++v) {
+            for (int i = 0; i < s.length(v); ++i) {
+                int action = s.action(v, i);
+                required[tasks.cityId(action)] = true;
+                
+                if (TaskTable.isPickup(action)) {
+                    carrying = Math.max(carrying, carryingCost(fleet, tasks, action));
+                }
+            }
+        }
+        
+        long entering = 0;
+        for (int c = 0; c < required.length; ++c) {
+            if (required[c] && !starts[c]) {
+                long closest = Long.MAX_VALUE;
+                for (int u = 0; u < required.length; ++u) {
+                    if (u != c && (required[u] || starts[u])) {
+                        closest = Math.min(closest, distances.units(u, c));
+                    }
+                }
+                entering += closest;
+            }
+        }
+        
+        return Math.max(carrying, Measures.unitsToKM(entering) * minCostPerKm);
+    }
+    
+    /**
+     * Cheapest way for a single vehicle that can carry it to go from its starting city to the pickup of
+     * <code>pickup</code>, then to its delivery
+     */
+    private static double carryingCost(Fleet fleet, TaskTable tasks, int pickup) {
+        DistanceMatrix distances = fleet.distances();
+        int from = tasks.cityId(pickup);
+        long carried = distances.units(from, tasks.cityId(TaskTable.delivery(TaskTable.taskIndex(pickup))));
+        
+        double cheapest = 0;
+        boolean found = false;
+        for (int v = 0; v < fleet.size(); ++v) {
+            if (fleet.capacity(v) >= tasks.weight(pickup)) {
+                double cost = Measures.unitsToKM(distances.units(fleet.startId(v), from) + carried) * fleet.costPerKm(v);
+                cheapest = found ? Math.min(cheapest, cost) : cost;
+                found = true;
+            }
+        }
+        
+        return cheapest;
+    }
+    
+    /**
+     * How much cheaper than <code>s</code> a solution of the same tasks can be at most
+     */
+    public static double gap(Solution s) {
+        return Math.max(0, Solution.totalCost(s) - of(s));
+    }
+    
+    /**
+     * Whether <code>s</code> is within <code>EPSILON</code> of the best solution of its tasks
+     */
+    public static boolean isNearOptimal(Solution s) {
+        return Solution.totalCost(s) <= of(s) * (1 + EPSILON);
+    }
+}
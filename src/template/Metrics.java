@@ -0,0 +1,239 @@
+package template;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters, latency histograms and events of the agents and searches, written as JSON lines to the file named by the
+ * system property <code>template.metrics</code>. Without that property every method returns at once.
+ *
+ * Events are written when they happen. Counters and histograms are written by <code>flush</code>, which is called
+ * after every plan and when the JVM exits. A histogram has one bucket per power of two nanoseconds, from which the
+ * percentiles are estimated
+ */
+public final class Metrics {
+    
+    private final static String FILE = System.getProperty("template.metrics");
+    private final static long START = System.nanoTime();
+    
+    private final static Map<String, long[]> counters = new LinkedHashMap<String, long[]>();
+    private final static Map<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+    private static Writer out;
+    
+    private static class Histogram {
+        
+        private final long[] buckets = new long[64];
+        private long count = 0;
+        private long sum = 0;
+        private long max = 0;
+        
+        private void add(long nanos) {
+            ++buckets[63 - Long.numberOfLeadingZeros(Math.max(1, nanos))];
+            ++count;
+            sum += nanos;
+            max = Math.max(max, nanos);
+        }
+        
+        /**
+         * Upper bound of the bucket holding the <code>q</code>-quantile
+         */
+        private long quantile(double q) {
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; ++b) {
+                seen += buckets[b];
+                if (seen >= rank) {
+                    return Math.min(max, (2L << b) - 1);
+                }
+            }
+            
+            return max;
+        }
+    }
+    
+    static {
+        if (FILE != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    }
+    
+    private Metrics() {
+    }
+    
+    public static boolean isEnabled() {
+        return FILE != null;
+    }
+    
+    public static void count(String name, long delta) {
+        if (FILE == null) {
+            return;
+        }
+        
+        synchronized (counters) {
+            long[] counter = counters.get(name);
+            if (counter == null) {
+                counter = new long[1];
+                counters.put(name, counter);
+            }
+            counter[0] += delta;
+        }
+    }
+    
+    public static void latency(String name, long nanos) {
+        if (FILE == null) {
+            return;
+        }
+        
+        synchronized (histograms) {
+            Histogram h = histograms.get(name);
+            if (h == null) {
+                h = new Histogram();
+                histograms.put(name, h);
+            }
+            h.add(nanos);
+        }
+    }
+    
+    /**
+     * Writes an event <code>name</code> with the given fields, alternately names and values. Values that are arrays
+     * of longs or doubles are written as JSON arrays
+     */
+    public static void event(String name, Object... fields) {
+        if (FILE == null) {
+            return;
+        }
+        
+        StringBuilder line = new StringBuilder();
+        line.append("{\"t\":").append((System.nanoTime() - START) / 1000000).append(",\"event\":\"").append(name).append('"');
+        for (int f = 0; f + 1 < fields.length; f += 2) {
+            line.append(",\"").append(fields[f]).append("\":");
+            append(line, fields[f + 1]);
+        }
+        line.append('}');
+        
+        write(line);
+    }
+    
+    /**
+     * Number of garbage collections and milliseconds spent in them since the JVM started
+     */
+    public static long[] gc() {
+        long[] gc = new long[2];
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc[0] += Math.max(0, bean.getCollectionCount());
+            gc[1] += Math.max(0, bean.getCollectionTime());
+        }
+        
+        return gc;
+    }
+    
+    /**
+     * Bytes allocated by every live thread since it started, 0 if the JVM does not tell or metrics are not written. The
+     * searches run on pool threads, so the bidding thread alone would miss most of what a bid allocates. A thread that
+     * ends between two calls takes its bytes with it, so a difference of two calls is only a lower bound
+     */
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (FILE == null || !(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        
+        long allocated = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            allocated += Math.max(0, bytes);
+        }
+        
+        return allocated;
+    }
+    
+    /**
+     * Writes every counter and histogram
+     */
+    public static void flush() {
+        if (FILE == null) {
+            return;
+        }
+        
+        synchronized (counters) {
+            for (Map.Entry<String, long[]> e : counters.entrySet()) {
+                event("counter", "name", e.getKey(), "value", e.getValue()[0]);
+            }
+        }
+        
+        synchronized (histograms) {
+            for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+                Histogram h = e.getValue();
+                event("latency", "name", e.getKey(), "count", h.count, "meanMs", h.sum / 1e6 / h.count,
+                        "p50Ms", h.quantile(0.5) / 1e6, "p90Ms", h.quantile(0.9) / 1e6, "p99Ms", h.quantile(0.99) / 1e6, "maxMs", h.max / 1e6);
+            }
+        }
+        
+        synchronized (Metrics.class) {
+            try {
+                if (out != null) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                Log.error("cannot write metrics: %s", e.getMessage());
+            }
+        }
+    }
+    
+    private static synchronized void write(CharSequence line) {
+        try {
+            if (out == null) {
+                out = new BufferedWriter(new FileWriter(FILE, true));
+            }
+            out.append(line).append('\n');
+        } catch (IOException e) {
+            Log.error("cannot write metrics: %s", e.getMessage());
+        }
+    }
+    
+    private static void append(StringBuilder line, Object value) {
+        if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            line.append('[');
+            for (int i = 0; i < array.length; ++i) {
+                line.append(i == 0 ? "" : ",").append(array[i]);
+            }
+            line.append(']');
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            line.append('[');
+            for (int i = 0; i < array.length; ++i) {
+                line.append(i == 0 ? "" : ",");
+                appendDouble(line, array[i]);
+            }
+            line.append(']');
+        } else if (value instanceof Double || value instanceof Float) {
+            appendDouble(line, ((Number) value).doubleValue());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            line.append(value);
+        } else {
+            line.append('"').append(String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+    }
+    
+    /**
+     * JSON has no infinities nor NaN, they are written as <code>null</code>
+     */
+    private static void appendDouble(StringBuilder line, double value) {
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            line.append("null");
+        } else {
+            line.append(value);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package template;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of moves, one move being (type, task, from vehicle, to vehicle, i, j) and the cost difference it
+ * makes. Moves are stored as parallel arrays so that generating and scoring a neighborhood does not allocate once the
+ * buffer is big enough
+ */
+public class Moves {
+    
+    /**
+     * Moves the task to the front of the plan of vehicle <code>to</code>
+     */
+    public final static int CHANGE_VEHICLE = 0;
+    /**
+     * Moves the pickup of the task at <code>i</code> and its delivery before <code>j</code> in the plan of <code>from</code> without the task
+     */
+    public final static int CHANGE_ORDER = 1;
+    /**
+     * Leaves the solution as it is, the only order change possible when the task is alone in its vehicle
+     */
+    public final static int SAME = 2;
+    
+    private int[] types = new int[16];
+    private int[] tasks = new int[16];
+    private int[] froms = new int[16];
+    private int[] tos = new int[16];
+    private int[] is = new int[16];
+    private int[] js = new int[16];
+    private double[] deltas = new double[16];
+    private int size = 0;
+    
+    private int[] windows = new int[16];
+    
+    public int size() {
+        return size;
+    }
+    
+    public void clear() {
+        size = 0;
+    }
+    
+    public void add(int type, int task, int from, int to, int i, int j, double delta) {
+        if (size == types.length) {
+            int capacity = 2 * size;
+            types = Arrays.copyOf(types, capacity);
+            tasks = Arrays.copyOf(tasks, capacity);
+            froms = Arrays.copyOf(froms, capacity);
+            tos = Arrays.copyOf(tos, capacity);
+            is = Arrays.copyOf(is, capacity);
+            js = Arrays.copyOf(js, capacity);
+            deltas = Arrays.copyOf(deltas, capacity);
+        }
+        
+        types[size] = type;
+        tasks[size] = task;
+        froms[size] = from;
+        tos[size] = to;
+        is[size] = i;
+        js[size] = j;
+        deltas[size] = delta;
+        ++size;
+    }
+    
+    public int type(int m) {
+        return types[m];
+    }
+    
+    public int task(int m) {
+        return tasks[m];
+    }
+    
+    public int from(int m) {
+        return froms[m];
+    }
+    
+    public int to(int m) {
+        return tos[m];
+    }
+    
+    public int i(int m) {
+        return is[m];
+    }
+    
+    public int j(int m) {
+        return js[m];
+    }
+    
+    public double delta(int m) {
+        return deltas[m];
+    }
+    
+    /**
+     * Scratch array of at least <code>length</code> ints used while generating moves
+     */
+    int[] windows(int length) {
+        if (windows.length < length) {
+            windows = new int[Integer.max(length, 2 * windows.length)];
+        }
+        
+        return windows;
+    }
+}
@@ -0,0 +1,17 @@
+package template;
+
+import java.util.SplittableRandom;
+
+/**
+ * A local search improving a solution of the same tasks. Implementations must only use <code>random</code> and their
+ * own state so that several searches can run at once
+ */
+public interface Optimizer {
+    
+    /**
+     * Does at most <code>iter</code> iterations from <code>initS</code>, stopping before an iteration would end past
+     * <code>deadline</code>, and returns the best solution found. Every better solution found is offered to
+     * <code>solver</code> if there is one. <code>initS</code> is not modified
+     */
+    Solution optimize(Solution initS, int iter, Deadline deadline, SplittableRandom random, AnytimeSolver solver);
+}
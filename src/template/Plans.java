@@ -0,0 +1,58 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+
+/**
+ * Builds the plans of a fleet, one vehicle per thread, so that turning a solution into plans takes as little as possible
+ * of the plan timeout
+ */
+public final class Plans {
+    
+    /**
+     * Builds the plan of one vehicle. It is called from several threads at once, once per vehicle
+     */
+    public interface Builder {
+        
+        Plan build(Vehicle v);
+    }
+    
+    private Plans() {
+    }
+    
+    /**
+     * The plans of <code>vehicles</code>, in the same order
+     */
+    public static List<Plan> build(List<Vehicle> vehicles, final Builder builder) {
+        List<Callable<Plan>> jobs = new ArrayList<Callable<Plan>>();
+        for (final Vehicle v : vehicles) {
+            jobs.add(new Callable<Plan>() {
+                @Override
+                public Plan call() {
+                    return builder.build(v);
+                }
+            });
+        }
+        
+        List<Plan> plans = new ArrayList<Plan>();
+        try {
+            for (Future<Plan> plan : ForkJoinPool.commonPool().invokeAll(jobs)) {
+                plans.add(plan.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        
+        return plans;
+    }
+}
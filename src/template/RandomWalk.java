@@ -0,0 +1,96 @@
+package template;
+
+import java.util.SplittableRandom;
+
+/**
+ * The random walk: at each iteration, a random task of a random vehicle is moved to a random neighbor amongst the ones
+ * obtained by changing its vehicle or its order, or the walk goes back to the best solution so far
+ */
+public class RandomWalk implements Optimizer {
+    
+    @Override
+    public Solution optimize(Solution initS, int iter, Deadline deadline, SplittableRandom random, AnytimeSolver solver) {
+        // the walk moves in place, so it works on its own copy
+        Solution returnS = new Solution(initS);
+        double returnCost = Solution.totalCost(initS);
+        
+        Solution best = initS;
+        double bestCost = returnCost;
+        int bestLength = initS.maxLength();
+        
+        Moves moves = new Moves();
+        
+        // running average of the duration of an iteration
+        long iterationNanos = 0;
+        long last = System.nanoTime();
+        
+        int iteration = 0;
+        long evaluated = 0;
+        for (; iteration < iter; ++iteration) {
+            if (!deadline.hasTimeFor(iterationNanos)) {
+                break;
+            }
+            
+            // get random vehicle that's not empty
+            int v = Solution.randomNonEmptyVehicle(returnS, random);
+            if (v < 0) {
+                break;
+            }
+            
+            int t = TaskTable.taskIndex(returnS.action(v, random.nextInt(returnS.length(v)))); // the task that will be passed to other vehicles and changed in order
+            returnS.neighbors(v, t, moves);
+            evaluated += moves.size();
+            
+            // the best solution so far counts as one more neighbor, the last one
+            int chosen = random.nextInt(moves.size() + 1);
+            
+            int bestMove = -1;
+            double bestMoveCost = Double.POSITIVE_INFINITY;
+            int bestMoveLength = Integer.MAX_VALUE;
+            for (int m = 0; m < moves.size(); ++m) {
+                double cost = returnCost + moves.delta(m);
+                if (cost <= bestMoveCost) {
+                    int length = returnS.maxLengthAfter(moves, m);
+                    if (cost < bestMoveCost || length < bestMoveLength) {
+                        bestMove = m;
+                        bestMoveCost = cost;
+                        bestMoveLength = length;
+                    }
+                }
+            }
+            
+            // the costs follow the deltas of the moves, pricing a whole solution again would cost as much as the fleet
+            Solution previousBest = best;
+            double previousBestCost = bestCost;
+            if (bestMoveCost < bestCost || (bestMoveCost == bestCost && bestMoveLength < bestLength)) {
+                best = new Solution(returnS);
+                best.apply(moves, bestMove);
+                bestCost = bestMoveCost;
+                bestLength = bestMoveLength;
+                
+                if (solver != null) {
+                    solver.offer(best, bestCost);
+                }
+            }
+            
+            if (chosen == moves.size()) {
+                returnS = new Solution(previousBest);
+                returnCost = previousBestCost;
+            } else {
+                returnS.apply(moves, chosen);
+                returnCost += moves.delta(chosen);
+            }
+            
+            long now = System.nanoTime();
+            iterationNanos = (3 * iterationNanos + (now - last)) / 4;
+            last = now;
+        }
+        
+        if (solver != null) {
+            solver.report(iteration, evaluated);
+        }
+        
+        // return returnS;
+        return best;
+    }
+}
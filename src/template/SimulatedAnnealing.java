@@ -0,0 +1,140 @@
+package template;
+
+import java.util.SplittableRandom;
+
+/**
+ * Simulated annealing: at each iteration, one random neighbor of a random task is drawn and scored by its cost
+ * difference, a better one is always taken and a worse one with probability <code>exp(-delta / temperature)</code>.
+ * The temperature goes down geometrically with the fraction of the time (or of the iterations) used, so that the
+ * search ends cold whatever the budget
+ */
+public class SimulatedAnnealing implements Optimizer {
+    
+    // the deadline is only read every so many iterations, which are much shorter than the ones of the other optimizers
+    private final static int CHECK_EVERY = 64;
+    private final static int CALIBRATION = 100;
+    
+    private final double initialAcceptance;
+    private final double finalRatio;
+    
+    /**
+     * Annealing accepting about half of the worsening moves at first and ending at a thousandth of the initial
+     * temperature
+     */
+    public SimulatedAnnealing() {
+        this(0.5, 1e-3);
+    }
+    
+    public SimulatedAnnealing(double initialAcceptance, double finalRatio) {
+        this.initialAcceptance = initialAcceptance;
+        this.finalRatio = finalRatio;
+    }
+    
+    @Override
+    public Solution optimize(Solution initS, int iter, Deadline deadline, SplittableRandom random, AnytimeSolver solver) {
+        Solution current = new Solution(initS);
+        double currentCost = Solution.totalCost(initS);
+        
+        Solution best = initS;
+        double bestCost = currentCost;
+        // the best solution is only copied when the search is about to leave it
+        boolean atBest = false;
+        
+        Moves moves = new Moves();
+        
+        double initialTemperature = initialTemperature(current, random, moves);
+        double temperature = initialTemperature;
+        long budget = Math.max(1, deadline.remaining());
+        
+        // running average of the duration of CHECK_EVERY iterations
+        long checkNanos = 0;
+        long last = System.nanoTime();
+        
+        int iteration = 0;
+        for (; iteration < iter; ++iteration) {
+            if (iteration % CHECK_EVERY == 0) {
+                long now = System.nanoTime();
+                if (iteration > 0) {
+                    checkNanos = (3 * checkNanos + (now - last)) / 4;
+                }
+                last = now;
+                
+                if (!deadline.hasTimeFor(checkNanos)) {
+                    break;
+                }
+                
+                double used = Math.max(1 - (double) deadline.remaining() / budget, (double) iteration / iter);
+                temperature = initialTemperature * Math.pow(finalRatio, Math.min(1, used));
+            }
+            
+            int v = Solution.randomNonEmptyVehicle(current, random);
+            if (v < 0) {
+                break;
+            }
+            
+            int t = TaskTable.taskIndex(current.action(v, random.nextInt(current.length(v))));
+            current.randomNeighbor(v, t, random, moves);
+            if (moves.size() == 0) {
+                continue;
+            }
+            
+            double delta = moves.delta(0);
+            if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                if (atBest && delta > 0) {
+                    best = new Solution(current);
+                    atBest = false;
+                    
+                    if (solver != null) {
+                        solver.offer(best, bestCost);
+                    }
+                }
+                
+                current.apply(moves, 0);
+                currentCost += delta;
+                
+                if (currentCost < bestCost) {
+                    bestCost = currentCost;
+                    atBest = true;
+                }
+            }
+        }
+        
+        if (atBest) {
+            best = current;
+            
+            if (solver != null) {
+                solver.offer(best, bestCost);
+            }
+        }
+        
+        if (solver != null) {
+            solver.report(iteration, iteration);
+        }
+        
+        return best;
+    }
+    
+    /**
+     * Temperature at which a worsening move of average size is accepted with probability <code>initialAcceptance</code>,
+     * the average being taken over a few random moves
+     */
+    private double initialTemperature(Solution s, SplittableRandom random, Moves moves) {
+        double sum = 0;
+        int count = 0;
+        
+        for (int sample = 0; sample < CALIBRATION; ++sample) {
+            int v = Solution.randomNonEmptyVehicle(s, random);
+            if (v < 0) {
+                break;
+            }
+            
+            s.randomNeighbor(v, TaskTable.taskIndex(s.action(v, random.nextInt(s.length(v)))), random, moves);
+            if (moves.size() > 0 && moves.delta(0) > 0) {
+                sum += moves.delta(0);
+                ++count;
+            }
+        }
+        
+        return count == 0 ? 1 : -(sum / count) / Math.log(initialAcceptance);
+    }
+}
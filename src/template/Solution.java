@@ -1,49 +1,130 @@
 package template;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Objects;
-import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
 
 import logist.Measures;
 import logist.simulation.Vehicle;
 import logist.task.Task;
 import logist.task.TaskSet;
-import logist.topology.Topology.City;
 
+/**
+ * A plan for every vehicle of a fleet. Vehicles are indexed by the <code>Fleet</code> and the plan of each vehicle is an
+ * array of actions encoded by the <code>TaskTable</code>, so that copying a solution only copies arrays. The map-based
+ * methods (<code>get</code>, <code>put</code>, <code>entries</code>...) are views on top of this encoding
+ */
 public class Solution {
     
-    private Map<Vehicle, List<TaskAugmented>> plan;
+    private final Fleet fleet;
+    private TaskTable tasks;
+    private int[][] routes;
+    private int[] lengths;
+    // the vehicles with tasks, in no particular order, and the position of every vehicle in it (-1 when empty)
+    private int[] occupied;
+    private int[] occupiedAt;
+    private int occupiedCount;
+    // number of plans of every length and the longest length, kept up to date by every change of a plan
+    private int[] lengthCounts;
+    private int longest;
+    // for every action, its position in the plan that has it (-1 if none), and for every task the vehicle carrying it
+    private int[] positions;
+    private int[] carriers;
+    // load profile of every plan, null until needed after the plan changed (see profile)
+    private int[][][] profiles;
+    // Zobrist hash of the edges of every plan, kept up to date by insert and removeAt
+    private long hash;
     
-    private final static Random random = new Random(/*12*/);
+    private final static long START = 0x5851F42D4C957F2DL;
+    private final static long END = 0x14057B7EF767814FL;
+    
+    private final static SplittableRandom random = new SplittableRandom(/*12*/);
     private final static double probability = 0.2;
     
     public Solution(Map<Vehicle, List<TaskAugmented>> plan) {
-        Map<Vehicle, List<TaskAugmented>> copy = new HashMap<Vehicle, List<TaskAugmented>>();
+        this(new Fleet(new ArrayList<Vehicle>(plan.keySet())), TaskTable.EMPTY);
         
         for (Entry<Vehicle, List<TaskAugmented>> entry : plan.entrySet()) {
-            copy.put(entry.getKey(), new LinkedList<TaskAugmented>(entry.getValue()));
+            put(entry.getKey(), entry.getValue());
         }
-        
-        this.plan = copy;
     }
     
     public Solution(Solution that) {
-        this(that.plan);
+        this.fleet = that.fleet;
+        this.tasks = that.tasks;
+        this.lengths = that.lengths.clone();
+        this.routes = new int[that.routes.length][];
+        this.occupied = that.occupied.clone();
+        this.occupiedAt = that.occupiedAt.clone();
+        this.occupiedCount = that.occupiedCount;
+        this.lengthCounts = that.lengthCounts.clone();
+        this.longest = that.longest;
+        this.positions = that.positions.clone();
+        this.carriers = that.carriers.clone();
+        this.profiles = that.profiles.clone();
+        this.hash = that.hash;
+        
+        for (int v = 0; v < routes.length; ++v) {
+            // a bit of room so that the insertions of a move do not need to grow the array
+            routes[v] = new int[lengths[v] + 2];
+            System.arraycopy(that.routes[v], 0, routes[v], 0, lengths[v]);
+        }
+    }
+    
+    Solution(Fleet fleet, TaskTable tasks) {
+        this.fleet = fleet;
+        this.tasks = tasks;
+        this.lengths = new int[fleet.size()];
+        this.routes = new int[fleet.size()][];
+        this.occupied = new int[fleet.size()];
+        this.occupiedAt = new int[fleet.size()];
+        this.occupiedCount = 0;
+        this.lengthCounts = new int[] { fleet.size() };
+        this.longest = 0;
+        this.positions = new int[0];
+        this.carriers = new int[0];
+        this.profiles = new int[fleet.size()][][];
+        indexTasks();
+        
+        for (int v = 0; v < routes.length; ++v) {
+            routes[v] = new int[2];
+            occupiedAt[v] = -1;
+            hash ^= edge(v, START, END);
+        }
     }
     
     @Override
     public boolean equals(Object o) {
         if (o instanceof Solution) {
             Solution that = (Solution) o;
-            return this.plan.equals(that.plan);
+            
+            if (this.hash != that.hash || !this.fleet.vehicles().equals(that.fleet.vehicles())) {
+                return false;
+            }
+            
+            for (int v = 0; v < routes.length; ++v) {
+                if (this.lengths[v] != that.lengths[v]) {
+                    return false;
+                }
+                
+                for (int i = 0; i < lengths[v]; ++i) {
+                    int a = this.routes[v][i];
+                    int b = that.routes[v][i];
+                    if (TaskTable.isPickup(a) != TaskTable.isPickup(b) || !this.tasks.task(a).equals(that.tasks.task(b))) {
+                        return false;
+                    }
+                }
+            }
+            
+            return true;
         }
         
         return false;
@@ -51,104 +132,833 @@ public class Solution {
     
     @Override
     public int hashCode() {
-        return Objects.hash(plan);
+        return (int) (hash ^ (hash >>> 32));
+    }
+    
+    /**
+     * 64-bit hash of the plans, the XOR of a random-looking key for every edge (vehicle, action, next action) including
+     * the start and the end of each plan. Inserting or removing an action only changes three edges, so the hash is
+     * updated in constant time by every move, and can be used to recognize a solution already seen
+     */
+    public long fingerprint() {
+        return hash;
     }
     
     public List<TaskAugmented> get(Vehicle v) {
-        return plan.get(v);
+        int index = fleet.indexOf(v);
+        return index < 0 ? null : new Route(index);
     }
     
     public void put(Vehicle v, List<TaskAugmented> l) {
-        plan.put(v, l);
+        int index = vehicleIndex(v);
+        
+        int[] route = new int[l.size() + 2];
+        int length = 0;
+        for (TaskAugmented t : l) {
+            route[length++] = encode(t);
+        }
+        
+        for (int i = 0; i < lengths[index]; ++i) {
+            positions[routes[index][i]] = -1;
+            carriers[TaskTable.taskIndex(routes[index][i])] = -1;
+        }
+        
+        hash ^= routeHash(index);
+        routes[index] = route;
+        countLength(length, lengths[index]);
+        lengths[index] = length;
+        profiles[index] = null;
+        hash ^= routeHash(index);
+        updateOccupied(index);
+        
+        for (int i = 0; i < length; ++i) {
+            positions[route[i]] = i;
+            carriers[TaskTable.taskIndex(route[i])] = index;
+        }
     }
     
     public void add(Vehicle v, TaskAugmented t) {
-        plan.get(v).add(t);
+        int index = vehicleIndex(v);
+        insert(index, lengths[index], encode(t));
     }
     
     public void add(Vehicle v, Task t) {
-        TaskAugmented p = new TaskAugmented(t, true);
-        TaskAugmented d = new TaskAugmented(t, false);
-        plan.get(v).add(p);
-        plan.get(v).add(d);
+        int index = vehicleIndex(v);
+        int task = taskIndex(t);
+        insert(index, lengths[index], TaskTable.pickup(task));
+        insert(index, lengths[index], TaskTable.delivery(task));
     }
     
     public void add(Vehicle v, int i, TaskAugmented t) {
-        plan.get(v).add(i, t);
+        insert(vehicleIndex(v), i, encode(t));
     }
     
     public void add(Vehicle v, int i, Task t) {
-        TaskAugmented p = new TaskAugmented(t, true);
-        TaskAugmented d = new TaskAugmented(t, false);
-        plan.get(v).add(i, p);
-        plan.get(v).add(i + 1, d);
+        int index = vehicleIndex(v);
+        int task = taskIndex(t);
+        insert(index, i, TaskTable.pickup(task));
+        insert(index, i + 1, TaskTable.delivery(task));
     }
     
     public void remove(Vehicle v, TaskAugmented t) {
-        plan.get(v).remove(t);
+        int index = fleet.indexOf(v);
+        int task = tasks.indexOf(t.task());
+        if (index < 0 || task < 0) {
+            return;
+        }
+        
+        int i = indexOf(index, TaskTable.encode(task, t.isPickup()));
+        if (i >= 0) {
+            removeAt(index, i);
+        }
     }
     
     public void remove(Task t) {
-        TaskAugmented p = new TaskAugmented(t, true);
-        TaskAugmented d = new TaskAugmented(t, false);
-        for (Vehicle v : vehicles()) {
-            if (plan.get(v).contains(p)) {
-                remove(v, p);
-                remove(v, d);
-            }
+        int task = tasks.indexOf(t);
+        if (task < 0) {
+            return;
+        }
+        
+        int v = carriers[task];
+        if (v >= 0) {
+            removeTask(v, task);
         }
     }
     
     public int nbVehicle() {
-        return plan.size();
+        return fleet.size();
     }
     
     public Set<Entry<Vehicle, List<TaskAugmented>>> entries() {
+        Map<Vehicle, List<TaskAugmented>> plan = new LinkedHashMap<Vehicle, List<TaskAugmented>>();
+        
+        for (int v = 0; v < routes.length; ++v) {
+            plan.put(fleet.get(v), new Route(v));
+        }
+        
         return plan.entrySet();
     }
     
     public List<Vehicle> vehicles() {
-        List<Vehicle> vehicles = new ArrayList<Vehicle>();
+        return fleet.vehicles();
+    }
+    
+    Fleet fleet() {
+        return fleet;
+    }
+    
+    TaskTable tasks() {
+        return tasks;
+    }
+    
+    int length(int v) {
+        return lengths[v];
+    }
+    
+    int action(int v, int i) {
+        return routes[v][i];
+    }
+    
+    /**
+     * Position of the encoded <code>action</code> in the plan of vehicle <code>v</code>, -1 if it is not there
+     */
+    int indexOf(int v, int action) {
+        return carriers[TaskTable.taskIndex(action)] == v ? positions[action] : -1;
+    }
+    
+    void insert(int v, int i, int action) {
+        int[] route = routes[v];
+        int length = lengths[v];
         
-        for (Entry<Vehicle, List<TaskAugmented>> e : entries()) {
-            vehicles.add(e.getKey());
+        long previous = key(v, i - 1);
+        long next = key(v, i);
+        long key = tasks.key(action);
+        hash ^= edge(v, previous, next) ^ edge(v, previous, key) ^ edge(v, key, next);
+        
+        if (length == route.length) {
+            int[] grown = new int[2 * length + 2];
+            System.arraycopy(route, 0, grown, 0, i);
+            System.arraycopy(route, i, grown, i + 1, length - i);
+            routes[v] = grown;
+            route = grown;
+        } else {
+            System.arraycopy(route, i, route, i + 1, length - i);
+        }
+        
+        route[i] = action;
+        countLength(length + 1, length);
+        lengths[v] = length + 1;
+        profiles[v] = null;
+        
+        for (int k = i; k <= length; ++k) {
+            positions[route[k]] = k;
+        }
+        carriers[TaskTable.taskIndex(action)] = v;
+        if (length == 0) {
+            updateOccupied(v);
+        }
+    }
+    
+    void removeAt(int v, int i) {
+        long previous = key(v, i - 1);
+        long next = key(v, i + 1);
+        long key = key(v, i);
+        hash ^= edge(v, previous, key) ^ edge(v, key, next) ^ edge(v, previous, next);
+        
+        int[] route = routes[v];
+        int action = route[i];
+        System.arraycopy(route, i + 1, route, i, lengths[v] - i - 1);
+        countLength(lengths[v] - 1, lengths[v]);
+        if (--lengths[v] == 0) {
+            updateOccupied(v);
+        }
+        profiles[v] = null;
+        
+        positions[action] = -1;
+        for (int k = i; k < lengths[v]; ++k) {
+            positions[route[k]] = k;
+        }
+        // the task stays with v while its other action is there, in the middle of a move
+        if (positions[action ^ 1] < 0) {
+            carriers[TaskTable.taskIndex(action)] = -1;
+        }
+    }
+    
+    /**
+     * Grows the position index so that it covers every task of the table, the new tasks being in no plan
+     */
+    private void indexTasks() {
+        int size = tasks.size();
+        if (carriers.length < size) {
+            int known = carriers.length;
+            carriers = Arrays.copyOf(carriers, size);
+            positions = Arrays.copyOf(positions, 2 * size);
+            Arrays.fill(carriers, known, size, -1);
+            Arrays.fill(positions, 2 * known, 2 * size, -1);
+        }
+    }
+    
+    /**
+     * Counts a plan going from length <code>old</code> to <code>length</code>. The new length is counted first, so that
+     * a plan losing one action only moves the longest length down by one
+     */
+    private void countLength(int length, int old) {
+        if (length >= lengthCounts.length) {
+            lengthCounts = Arrays.copyOf(lengthCounts, Integer.max(length + 1, 2 * lengthCounts.length));
+        }
+        
+        ++lengthCounts[length];
+        longest = Integer.max(longest, length);
+        --lengthCounts[old];
+        while (lengthCounts[longest] == 0) {
+            --longest;
+        }
+    }
+    
+    /**
+     * Adds <code>v</code> to the vehicles with tasks or takes it out, depending on its length
+     */
+    private void updateOccupied(int v) {
+        if (lengths[v] > 0 && occupiedAt[v] < 0) {
+            occupiedAt[v] = occupiedCount;
+            occupied[occupiedCount++] = v;
+        } else if (lengths[v] == 0 && occupiedAt[v] >= 0) {
+            // the last vehicle of the list takes the place of v
+            int last = occupied[--occupiedCount];
+            occupied[occupiedAt[v]] = last;
+            occupiedAt[last] = occupiedAt[v];
+            occupiedAt[v] = -1;
+        }
+    }
+    
+    /**
+     * Key of the action at <code>i</code> in the plan of <code>v</code>, the start or the end of the plan if
+     * <code>i</code> is out of it
+     */
+    private long key(int v, int i) {
+        if (i < 0) {
+            return START;
+        }
+        
+        return i < lengths[v] ? tasks.key(routes[v][i]) : END;
+    }
+    
+    private static long edge(int v, long from, long to) {
+        return TaskTable.mix(from * 0x9E3779B97F4A7C15L + to * 0xC2B2AE3D27D4EB4FL + (v + 1) * 0x165667B19E3779F9L);
+    }
+    
+    private long routeHash(int v) {
+        long h = 0;
+        for (int i = -1; i < lengths[v]; ++i) {
+            h ^= edge(v, key(v, i), key(v, i + 1));
+        }
+        
+        return h;
+    }
+    
+    /**
+     * Computes the hash again, needed when the keys of the tasks change
+     */
+    private void rehash() {
+        hash = 0;
+        for (int v = 0; v < routes.length; ++v) {
+            hash ^= routeHash(v);
+        }
+    }
+    
+    /**
+     * Cost difference of moving task <code>t</code> from vehicle <code>v</code> to the front of vehicle <code>v2</code>,
+     * as <code>changeVehicle</code> does, without building the neighbor
+     */
+    double changeVehicleDelta(int v, int t, int v2) {
+        return changeVehicleDelta(v, indexOf(v, TaskTable.pickup(t)), indexOf(v, TaskTable.delivery(t)), v2);
+    }
+    
+    /**
+     * Same as <code>changeVehicleDelta(v, t, v2)</code> where <code>p</code> and <code>d</code> are the positions of the
+     * pickup and the delivery of the task in <code>v</code>
+     */
+    double changeVehicleDelta(int v, int p, int d, int v2) {
+        int t = TaskTable.taskIndex(routes[v][p]);
+        long removed = removalUnits(v, p, d);
+        long inserted = insertionUnits(v2, 0, 0, -1, -1, tasks.cityId(TaskTable.pickup(t)), tasks.cityId(TaskTable.delivery(t)));
+        
+        return Measures.unitsToKM(removed) * fleet.costPerKm(v) + Measures.unitsToKM(inserted) * fleet.costPerKm(v2);
+    }
+    
+    /**
+     * Cost difference of taking task <code>t</code> out of vehicle <code>v</code> and putting its pickup at <code>i</code>
+     * and its delivery before <code>j</code> of the remaining plan, as <code>changeOrder</code> does, without building
+     * the neighbor
+     */
+    double changeOrderDelta(int v, int t, int i, int j) {
+        return changeOrderDelta(v, indexOf(v, TaskTable.pickup(t)), indexOf(v, TaskTable.delivery(t)), i, j);
+    }
+    
+    /**
+     * Same as <code>changeOrderDelta(v, t, i, j)</code> where <code>p</code> and <code>d</code> are the positions of the
+     * pickup and the delivery of the task in <code>v</code>
+     */
+    double changeOrderDelta(int v, int p, int d, int i, int j) {
+        long units = removalUnits(v, p, d) + insertionUnits(v, i, j, p, d, tasks.cityId(routes[v][p]), tasks.cityId(routes[v][d]));
+        
+        return Measures.unitsToKM(units) * fleet.costPerKm(v);
+    }
+    
+    void applyChangeVehicle(int v, int t, int v2) {
+        removeAt(v, indexOf(v, TaskTable.delivery(t)));
+        removeAt(v, indexOf(v, TaskTable.pickup(t)));
+        
+        insert(v2, 0, TaskTable.pickup(t));
+        insert(v2, 1, TaskTable.delivery(t));
+    }
+    
+    void applyChangeOrder(int v, int t, int i, int j) {
+        removeAt(v, indexOf(v, TaskTable.delivery(t)));
+        removeAt(v, indexOf(v, TaskTable.pickup(t)));
+        
+        insert(v, i, TaskTable.pickup(t));
+        insert(v, j + 1, TaskTable.delivery(t));
+    }
+    
+    /**
+     * Vehicle whose plan has task <code>t</code>, -1 if none has
+     */
+    int vehicleOf(int t) {
+        return carriers[t];
+    }
+    
+    /**
+     * Takes task <code>t</code> out of the plan of <code>v</code>
+     */
+    void removeTask(int v, int t) {
+        removeAt(v, indexOf(v, TaskTable.delivery(t)));
+        removeAt(v, indexOf(v, TaskTable.pickup(t)));
+    }
+    
+    /**
+     * Cost difference (negative) of taking task <code>t</code> out of the plan of <code>v</code>
+     */
+    double removalDelta(int v, int t) {
+        long units = removalUnits(v, indexOf(v, TaskTable.pickup(t)), indexOf(v, TaskTable.delivery(t)));
+        
+        return Measures.unitsToKM(units) * fleet.costPerKm(v);
+    }
+    
+    /**
+     * Cost difference of the cheapest way to put task <code>t</code>, which is in no plan, in the plan of <code>v</code>
+     * without exceeding its capacity: pickup at <code>i</code> and delivery before <code>j</code>, written in
+     * <code>position</code>. Returns infinity if there is no such way.
+     *
+     * The cost of a pickup at <code>i</code> and a delivery at <code>j > i</code> is a part that only depends on
+     * <code>i</code> plus a part that only depends on <code>j</code>, and the task can be carried from <code>i</code>
+     * to <code>j</code> as long as the load before every position in between leaves room for it. So a single pass over
+     * <code>j</code>, keeping the best pickup since the last position without room, finds the cheapest insertion
+     */
+    double insertionDelta(int v, int t, int[] position) {
+        DistanceMatrix distances = fleet.distances();
+        int[] route = routes[v];
+        int length = lengths[v];
+        
+        int pickup = tasks.cityId(TaskTable.pickup(t));
+        int delivery = tasks.cityId(TaskTable.delivery(t));
+        int room = fleet.capacity(v) - tasks.weight(TaskTable.pickup(t));
+        
+        long bestUnits = Long.MAX_VALUE;
+        
+        // best pickup part amongst the positions before j from which the task can be carried up to j
+        long bestPickupUnits = Long.MAX_VALUE;
+        int bestPickup = -1;
+        
+        int load = 0;
+        int previous = fleet.startId(v);
+        for (int j = 0; j <= length; ++j) {
+            int next = j < length ? tasks.cityId(route[j]) : -1;
+            
+            if (load > room) {
+                bestPickupUnits = Long.MAX_VALUE;
+                bestPickup = -1;
+            } else {
+                // pickup and delivery both at j
+                long units = distances.units(previous, pickup) + distances.units(pickup, delivery);
+                if (next >= 0) {
+                    units += distances.units(delivery, next) - distances.units(previous, next);
+                }
+                if (units < bestUnits) {
+                    bestUnits = units;
+                    position[0] = j;
+                    position[1] = j;
+                }
+                
+                // pickup before j and delivery at j
+                if (bestPickup >= 0) {
+                    units = bestPickupUnits + distances.units(previous, delivery);
+                    if (next >= 0) {
+                        units += distances.units(delivery, next) - distances.units(previous, next);
+                    }
+                    if (units < bestUnits) {
+                        bestUnits = units;
+                        position[0] = bestPickup;
+                        position[1] = j;
+                    }
+                }
+                
+                // pickup at j, for the deliveries after it
+                if (next >= 0) {
+                    long pickupUnits = distances.units(previous, pickup) + distances.units(pickup, next) - distances.units(previous, next);
+                    if (pickupUnits < bestPickupUnits) {
+                        bestPickupUnits = pickupUnits;
+                        bestPickup = j;
+                    }
+                }
+            }
+            
+            if (next >= 0) {
+                load += loadChange(route[j]);
+                previous = next;
+            }
+        }
+        
+        return bestUnits == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : Measures.unitsToKM(bestUnits) * fleet.costPerKm(v);
+    }
+    
+    /**
+     * Puts task <code>t</code>, which is in no plan, in the plan of <code>v</code> with its pickup at <code>i</code> and
+     * its delivery before <code>j</code>
+     */
+    void insertTask(int v, int t, int i, int j) {
+        insert(v, i, TaskTable.pickup(t));
+        insert(v, j + 1, TaskTable.delivery(t));
+    }
+    
+    private int loadChange(int action) {
+        return TaskTable.isPickup(action) ? tasks.weight(action) : -tasks.weight(action);
+    }
+    
+    /**
+     * Distance units saved (as a negative number) by removing the actions at positions <code>p</code> < <code>d</code> of vehicle <code>v</code>
+     */
+    private long removalUnits(int v, int p, int d) {
+        DistanceMatrix distances = fleet.distances();
+        int[] route = routes[v];
+        int length = lengths[v];
+        
+        int pickup = tasks.cityId(route[p]);
+        int delivery = tasks.cityId(route[d]);
+        int previous = p == 0 ? fleet.startId(v) : tasks.cityId(route[p - 1]);
+        
+        if (d == p + 1) {
+            long delta = -distances.units(previous, pickup) - distances.units(pickup, delivery);
+            if (d + 1 < length) {
+                int next = tasks.cityId(route[d + 1]);
+                delta += distances.units(previous, next) - distances.units(delivery, next);
+            }
+            
+            return delta;
+        }
+        
+        int afterPickup = tasks.cityId(route[p + 1]);
+        long delta = distances.units(previous, afterPickup) - distances.units(previous, pickup) - distances.units(pickup, afterPickup);
+        
+        int beforeDelivery = tasks.cityId(route[d - 1]);
+        delta -= distances.units(beforeDelivery, delivery);
+        if (d + 1 < length) {
+            int next = tasks.cityId(route[d + 1]);
+            delta += distances.units(beforeDelivery, next) - distances.units(delivery, next);
+        }
+        
+        return delta;
+    }
+    
+    /**
+     * Distance units added by putting the city <code>pickup</code> at <code>i</code> and the city <code>delivery</code>
+     * before <code>j</code> in the plan of <code>v</code> where positions <code>p</code> and <code>d</code> are skipped
+     * (-1 to skip nothing)
+     */
+    private long insertionUnits(int v, int i, int j, int p, int d, int pickup, int delivery) {
+        DistanceMatrix distances = fleet.distances();
+        int length = lengths[v] - (p < 0 ? 0 : 2);
+        int previous = i == 0 ? fleet.startId(v) : skippedCity(v, i - 1, p, d);
+        
+        if (i == j) {
+            long delta = distances.units(previous, pickup) + distances.units(pickup, delivery);
+            if (i < length) {
+                int next = skippedCity(v, i, p, d);
+                delta += distances.units(delivery, next) - distances.units(previous, next);
+            }
+            
+            return delta;
+        }
+        
+        int atI = skippedCity(v, i, p, d);
+        long delta = distances.units(previous, pickup) + distances.units(pickup, atI) - distances.units(previous, atI);
+        
+        int beforeJ = skippedCity(v, j - 1, p, d);
+        delta += distances.units(beforeJ, delivery);
+        if (j < length) {
+            int next = skippedCity(v, j, p, d);
+            delta += distances.units(delivery, next) - distances.units(beforeJ, next);
+        }
+        
+        return delta;
+    }
+    
+    /**
+     * Id of the city of the <code>i</code>-th action of <code>v</code> once positions <code>p</code> < <code>d</code> are skipped
+     */
+    private int skippedCity(int v, int i, int p, int d) {
+        if (p >= 0) {
+            if (i >= p) {
+                ++i;
+            }
+            if (i >= d) {
+                ++i;
+            }
+        }
+        
+        return tasks.cityId(routes[v][i]);
+    }
+    
+    /**
+     * Sparse table of the loads of the plan of <code>v</code>: level 0 holds the load before every position (the end
+     * included) and level <code>l</code> the largest of <code>2^l</code> consecutive ones. It is built the first time it
+     * is needed after the plan changed
+     */
+    private int[][] profile(int v) {
+        int[][] table = profiles[v];
+        
+        if (table == null) {
+            int length = lengths[v];
+            int[] loads = new int[length + 1];
+            for (int i = 0; i < length; ++i) {
+                int action = routes[v][i];
+                loads[i + 1] = loads[i] + (TaskTable.isPickup(action) ? tasks.weight(action) : -tasks.weight(action));
+            }
+            
+            table = new int[32 - Integer.numberOfLeadingZeros(length + 1)][];
+            table[0] = loads;
+            for (int l = 1; l < table.length; ++l) {
+                int half = 1 << (l - 1);
+                int[] below = table[l - 1];
+                int[] level = new int[below.length - half];
+                for (int i = 0; i < level.length; ++i) {
+                    level[i] = Math.max(below[i], below[i + half]);
+                }
+                table[l] = level;
+            }
+            
+            profiles[v] = table;
+        }
+        
+        return table;
+    }
+    
+    /**
+     * Largest load before positions <code>from</code> to <code>to</code> (both included) of the plan whose profile is
+     * <code>table</code>, 0 if the interval is empty
+     */
+    private static int maxLoad(int[][] table, int from, int to) {
+        if (from > to) {
+            return 0;
+        }
+        
+        int level = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+        return Math.max(table[level][from], table[level][to - (1 << level) + 1]);
+    }
+    
+    /**
+     * Load before position <code>k</code> of the plan of <code>v</code> without its task at <code>p</code> and
+     * <code>d</code>, read from <code>table</code>, the profile of the whole plan
+     */
+    private static int loadWithout(int[][] table, int p, int d, int weight, int k) {
+        if (k < p) {
+            return table[0][k];
+        }
+        
+        return k < d - 1 ? table[0][k + 1] - weight : table[0][k + 2];
+    }
+    
+    /**
+     * Whether the plan of <code>v</code> can carry the task at <code>p</code> and <code>d</code> once its pickup is
+     * moved before position <code>i</code> and its delivery before position <code>j</code> of the plan without it, in
+     * constant time
+     */
+    private boolean canCarry(int v, int p, int d, int weight, int i, int j) {
+        int[][] table = profile(v);
+        
+        // the loads without the task are those of the plan, shifted and lighter while the task was carried
+        int max = maxLoad(table, i, Math.min(j, p - 1));
+        max = Math.max(max, maxLoad(table, Math.max(i, p) + 1, Math.min(j, d - 2) + 1) - weight);
+        max = Math.max(max, maxLoad(table, Math.max(i, d - 1) + 2, j + 2));
+        
+        return max + weight <= fleet.capacity(v);
+    }
+    
+    /**
+     * Writes in <code>windows</code> the windows <code>[min, max]</code> of the plan of <code>v</code> without positions
+     * <code>p</code> and <code>d</code> in which a task of weight <code>weight</code> can be moved, flattened as pairs,
+     * and returns how many ints were written. <code>windows</code> must hold at least <code>2 * length(v)</code> ints.
+     * A window is a run of positions where the load leaves room for the task, so any pickup and delivery in it fit
+     */
+    private int orderWindows(int v, int p, int d, int weight, int[] windows) {
+        int[][] table = profile(v);
+        int room = fleet.capacity(v) - weight;
+        int count = 0;
+        
+        int min = -1;
+        for (int k = 0; k <= lengths[v] - 2; ++k) {
+            if (loadWithout(table, p, d, weight, k) <= room) {
+                if (min < 0) {
+                    min = k;
+                }
+            } else if (min >= 0) {
+                windows[count++] = min;
+                windows[count++] = k - 1;
+                min = -1;
+            }
+        }
+        
+        if (min >= 0) {
+            windows[count++] = min;
+            windows[count++] = lengths[v] - 2;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Fills <code>moves</code> with the neighbors obtained by putting task <code>t</code> of <code>v</code> at the front
+     * of every vehicle near <code>v</code> that can carry it (see <code>Fleet.nearby</code>), and by changing the order of
+     * <code>t</code> in <code>v</code>
+     */
+    void neighbors(int v, int t, Moves moves) {
+        moves.clear();
+        
+        int p = indexOf(v, TaskTable.pickup(t));
+        int d = indexOf(v, TaskTable.delivery(t));
+        int weight = tasks.weight(TaskTable.pickup(t));
+        
+        for (int v2 : fleet.nearby(v)) {
+            if (fleet.capacity(v2) >= weight) {
+                moves.add(Moves.CHANGE_VEHICLE, t, v, v2, 0, 0, changeVehicleDelta(v, p, d, v2));
+            }
         }
         
-        return vehicles;
+        if (lengths[v] == 2) {
+            moves.add(Moves.SAME, t, v, v, 0, 0, 0);
+            return;
+        }
+        
+        int[] windows = moves.windows(2 * lengths[v]);
+        int count = orderWindows(v, p, d, weight, windows);
+        
+        for (int w = 0; w < count; w += 2) {
+            for (int i = windows[w]; i <= windows[w + 1]; ++i) {
+                for (int j = i; j <= windows[w + 1]; ++j) {
+                    moves.add(Moves.CHANGE_ORDER, t, v, v, i, j, changeOrderDelta(v, p, d, i, j));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Puts in <code>moves</code> one random neighbor obtained by moving task <code>t</code> of <code>v</code>, to the
+     * front of a vehicle near <code>v</code> or to another order in <code>v</code>, drawing it without listing the others. Leaves
+     * <code>moves</code> empty if the drawn vehicle or order cannot carry the task
+     */
+    void randomNeighbor(int v, int t, SplittableRandom random, Moves moves) {
+        moves.clear();
+        
+        int p = indexOf(v, TaskTable.pickup(t));
+        int d = indexOf(v, TaskTable.delivery(t));
+        int weight = tasks.weight(TaskTable.pickup(t));
+        
+        if (lengths[v] == 2 || random.nextBoolean()) {
+            int[] nearby = fleet.nearby(v);
+            if (nearby.length > 0) {
+                int v2 = nearby[random.nextInt(nearby.length)];
+                
+                if (fleet.capacity(v2) >= weight) {
+                    moves.add(Moves.CHANGE_VEHICLE, t, v, v2, 0, 0, changeVehicleDelta(v, p, d, v2));
+                }
+            }
+            return;
+        }
+        
+        // a random (i, j) with i <= j, kept only if the plan can carry the task in between
+        int a = random.nextInt(lengths[v] - 1);
+        int b = random.nextInt(lengths[v] - 1);
+        int i = Math.min(a, b);
+        int j = Math.max(a, b);
+        
+        if (canCarry(v, p, d, weight, i, j)) {
+            moves.add(Moves.CHANGE_ORDER, t, v, v, i, j, changeOrderDelta(v, p, d, i, j));
+        }
+    }
+    
+    /**
+     * Applies move <code>m</code> of <code>moves</code> to this solution
+     */
+    void apply(Moves moves, int m) {
+        if (moves.type(m) == Moves.CHANGE_VEHICLE) {
+            applyChangeVehicle(moves.from(m), moves.task(m), moves.to(m));
+        } else if (moves.type(m) == Moves.CHANGE_ORDER) {
+            applyChangeOrder(moves.from(m), moves.task(m), moves.i(m), moves.j(m));
+        }
+    }
+    
+    /**
+     * Longest plan once move <code>m</code> of <code>moves</code> is applied, in constant time from the counts of the
+     * plan lengths. Only a vehicle change changes lengths, of its two vehicles only
+     */
+    int maxLengthAfter(Moves moves, int m) {
+        if (moves.type(m) != Moves.CHANGE_VEHICLE) {
+            return longest;
+        }
+        
+        int v = moves.from(m);
+        int v2 = moves.to(m);
+        // the other plans only matter if they are longer than what is left of v
+        int others = longest;
+        if (lengths[v] == longest && lengthCounts[longest] == 1) {
+            others = lengthCounts[longest - 1] > 0 ? longest - 1 : 0;
+        }
+        
+        return Integer.max(others, Integer.max(lengths[v] - 2, lengths[v2] + 2));
+    }
+    
+    int maxLength() {
+        return longest;
+    }
+    
+    private int vehicleIndex(Vehicle v) {
+        int index = fleet.indexOf(v);
+        if (index < 0) {
+            throw new IllegalArgumentException("vehicle " + v.name() + " is not part of this solution");
+        }
+        
+        return index;
+    }
+    
+    private int taskIndex(Task t) {
+        tasks = tasks.with(t);
+        indexTasks();
+        return tasks.indexOf(t);
+    }
+    
+    private int encode(TaskAugmented t) {
+        return TaskTable.encode(taskIndex(t.task()), t.isPickup());
+    }
+    
+    /**
+     * Read-only view of the plan of one vehicle
+     */
+    private class Route extends AbstractList<TaskAugmented> {
+        
+        private final int v;
+        
+        private Route(int v) {
+            this.v = v;
+        }
+        
+        @Override
+        public TaskAugmented get(int i) {
+            if (i < 0 || i >= lengths[v]) {
+                throw new IndexOutOfBoundsException("index " + i + ", size " + lengths[v]);
+            }
+            
+            return tasks.augmented(routes[v][i]);
+        }
+        
+        @Override
+        public int size() {
+            return lengths[v];
+        }
     }
     
     @Override
     public String toString() {
-        String s = "{\n";
-
-        for (Entry<Vehicle, List<TaskAugmented>> e : plan.entrySet()) {
-            s += "\t" + e.getKey().name() + " : " + e.getValue() + "\n";
+        StringBuilder s = new StringBuilder("{\n");
+        
+        for (Entry<Vehicle, List<TaskAugmented>> e : entries()) {
+            s.append('\t').append(e.getKey().name()).append(" : ").append(e.getValue()).append('\n');
         }
         
-        s += "}\n";
+        s.append("}\n");
         
-        return s;
+        return s.toString();
     }
     
     public static Solution greedySolutionAdd(Solution s, Task t) {
         Solution newS = new Solution(s);
+        newS.greedyAdd(newS.taskIndex(t));
+        
+        return newS;
+    }
+    
+    /**
+     * Puts <code>task</code>, pickup directly followed by delivery, after the delivery whose city is the cheapest detour
+     * for it, regardless of the load of the vehicle
+     */
+    void greedyAdd(int task) {
+        DistanceMatrix distances = fleet.distances();
         
-        City tPickup = t.pickupCity;
-        City tDeliver = t.deliveryCity;
+        int tPickup = tasks.cityId(TaskTable.pickup(task));
+        int tDeliver = tasks.cityId(TaskTable.delivery(task));
         
-        Set<City> visited = new HashSet<City>();
+        boolean[] visited = new boolean[distances.size()];
         
         double bestCost = Double.MAX_VALUE;
-        Vehicle bestVehicle = newS.vehicles().get(0);
+        int bestVehicle = 0;
         int bestI = -1;
         
-        for (Vehicle v : newS.vehicles()) {
-            for (int i = 0; i < newS.plan.get(v).size(); ++i) { //TaskAugmented vt : newS.plan.get(v)) {
-                TaskAugmented vt = newS.plan.get(v).get(i);
-                City vtCity = vt.city();
-                if (vt.isDeliver() && !visited.contains(vtCity)) {
-                    visited.add(vtCity);
-                    double cost = vtCity.distanceUnitsTo(tPickup) + tPickup.distanceUnitsTo(tDeliver) + tDeliver.distanceUnitsTo(vtCity);
+        for (int v = 0; v < routes.length; ++v) {
+            for (int i = 0; i < lengths[v]; ++i) {
+                int action = routes[v][i];
+                int vtCity = tasks.cityId(action);
+                if (!TaskTable.isPickup(action) && !visited[vtCity]) {
+                    visited[vtCity] = true;
+                    double cost = distances.units(vtCity, tPickup) + distances.units(tPickup, tDeliver) + distances.units(tDeliver, vtCity);
                     if (bestCost > cost) {
                         bestCost = cost;
                         bestVehicle = v;
@@ -158,26 +968,13 @@ public class Solution {
             }
         }
         
-        TaskAugmented tp = new TaskAugmented(t, true);
-        TaskAugmented td = new TaskAugmented(t, false);
-        newS.plan.get(bestVehicle).add(bestI + 1, tp);
-        newS.plan.get(bestVehicle).add(bestI + 2, td);
-        
-        return newS;
+        insert(bestVehicle, bestI + 1, TaskTable.pickup(task));
+        insert(bestVehicle, bestI + 2, TaskTable.delivery(task));
     }
     
     public static Solution greedySolutionRemove(Solution s, Task t) {
-        TaskAugmented tp = new TaskAugmented(t, true);
-        TaskAugmented td = new TaskAugmented(t, false);
-        
         Solution newS = new Solution(s);
-        
-        for (Vehicle v : newS.vehicles()) {
-            if (newS.plan.get(v).contains(tp)) {
-                newS.plan.get(v).remove(tp);
-                newS.plan.get(v).remove(td);
-            }
-        }
+        newS.remove(t);
         
         return newS;
     }
@@ -186,52 +983,25 @@ public class Solution {
      * Creates the initial solution by putting every task in the biggest vehicle given. Every task will be picked up and delivered before the next
      */
     public static Solution selectInitialSolution(List<Vehicle> vehicles, TaskSet tasks) {
-        Vehicle biggest = null;
-        double bestCapacity = 0;
-        
-        Map<Vehicle, List<TaskAugmented>> plan = new HashMap<Vehicle, List<TaskAugmented>>();
-        
-        // find biggest
-        for(Vehicle v : vehicles) {
-            plan.put(v, new LinkedList<TaskAugmented>());
-            
-            double currentCapacity = v.capacity();
-            if (currentCapacity > bestCapacity) {
-                biggest = v;
-                bestCapacity = currentCapacity;
-            }
-        }
-        
-        // put in biggest vehicle
-        for (Task task : tasks) {
-            TaskAugmented tp = new TaskAugmented(task, true);
-            TaskAugmented td = new TaskAugmented(task, false);
-            
-            if (task.weight > bestCapacity) {
-                return null;
-            }
-
-            plan.get(biggest).add(tp);
-            plan.get(biggest).add(td);            
-        }
-        
-        return new Solution(plan);
+        return selectInitialSolution(vehicles, (Iterable<Task>) tasks);
     }
     
     /**
      * Creates the initial solution by putting every task in the biggest vehicle given. Every task will be picked up and delivered before the next
      */
     public static Solution selectInitialSolution(List<Vehicle> vehicles, Set<Task> tasks) {
-        Vehicle biggest = null;
-        double bestCapacity = 0;
+        return selectInitialSolution(vehicles, (Iterable<Task>) tasks);
+    }
+    
+    private static Solution selectInitialSolution(List<Vehicle> vehicles, Iterable<Task> tasks) {
+        Solution s = new Solution(new Fleet(vehicles), TaskTable.of(tasks));
         
-        Map<Vehicle, List<TaskAugmented>> plan = new HashMap<Vehicle, List<TaskAugmented>>();
+        int biggest = -1;
+        double bestCapacity = 0;
         
         // find biggest
-        for(Vehicle v : vehicles) {
-            plan.put(v, new LinkedList<TaskAugmented>());
-            
-            double currentCapacity = v.capacity();
+        for (int v = 0; v < s.fleet.size(); ++v) {
+            double currentCapacity = s.fleet.capacity(v);
             if (currentCapacity > bestCapacity) {
                 biggest = v;
                 bestCapacity = currentCapacity;
@@ -239,304 +1009,312 @@ public class Solution {
         }
         
         // put in biggest vehicle
-        for (Task task : tasks) {
-            TaskAugmented tp = new TaskAugmented(task, true);
-            TaskAugmented td = new TaskAugmented(task, false);
-            
-            if (task.weight > bestCapacity) {
+        for (int task = 0; task < s.tasks.size(); ++task) {
+            if (s.tasks.weight(TaskTable.pickup(task)) > bestCapacity) {
                 return null;
             }
-
-            plan.get(biggest).add(tp);
-            plan.get(biggest).add(td);            
+            
+            s.insert(biggest, s.lengths[biggest], TaskTable.pickup(task));
+            s.insert(biggest, s.lengths[biggest], TaskTable.delivery(task));
         }
         
-        return new Solution(plan);
+        return s;
     }
     
     /**
      * Alternate initial solution where we put tasks in every vehicle
      */
     public static Solution selectInitialSolutionBis(List<Vehicle> vehicles, Set<Task> tasks) {
+        Solution s = new Solution(new Fleet(vehicles), TaskTable.of(tasks));
         int vehicle = 0;
         
-        Map<Vehicle, List<TaskAugmented>> plan = new HashMap<Vehicle, List<TaskAugmented>>();
-        // init
-        for(Vehicle v : vehicles) {
-            plan.put(v, new LinkedList<TaskAugmented>());
-        }
-        
-        for (Task task : tasks) {
-            TaskAugmented tp = new TaskAugmented(task, true);
-            TaskAugmented td = new TaskAugmented(task, false);
-            
-            while (task.weight > vehicles.get(vehicle).capacity()) {
-                vehicle = (vehicle + 1) % vehicles.size();
+        for (int task = 0; task < s.tasks.size(); ++task) {
+            while (s.tasks.weight(TaskTable.pickup(task)) > s.fleet.capacity(vehicle)) {
+                vehicle = (vehicle + 1) % s.fleet.size();
             }
             
-            plan.get(vehicles.get(vehicle)).add(tp);
-            plan.get(vehicles.get(vehicle)).add(td);
+            s.insert(vehicle, s.lengths[vehicle], TaskTable.pickup(task));
+            s.insert(vehicle, s.lengths[vehicle], TaskTable.delivery(task));
             
-            vehicle = (vehicle + 1) % vehicles.size();
+            vehicle = (vehicle + 1) % s.fleet.size();
         }
         
-        return new Solution(plan);
+        return s;
     }
     
-    public static Solution finalSolution(Solution initS, long timeoutPlan) {
-        Solution returnS = initS;
-        long start = System.currentTimeMillis();
+    /**
+     * Alternate initial solution where every task is put, pickup directly followed by delivery, where it adds the least
+     * cost amongst the vehicles that can carry it
+     */
+    public static Solution selectInitialSolutionGreedy(List<Vehicle> vehicles, Set<Task> tasks) {
+        Solution s = new Solution(new Fleet(vehicles), TaskTable.of(tasks));
         
-        Solution best = initS;
-    
-        // We subtract 600 ms from the timeoutPlan so that we do not realise too late we've taken too much time
-        while (System.currentTimeMillis() - start > timeoutPlan - 600) {
-            List<Solution> neighbors = getNeighbors(returnS);
-            neighbors.add(best);
-            best = getBest(neighbors);
-            
-            returnS = neighbors.get(random.nextInt(neighbors.size()));
+        for (int task = 0; task < s.tasks.size(); ++task) {
+            if (!s.insertCheapest(task)) {
+                return null;
+            }
         }
-
-        // return returnS;
-        return best;
+        
+        return s;
     }
-
-
+    
     /**
-     * Does <code>iter</code> iterations of <code>chooseNeighbors</code> to find a suboptimal solution
+     * Creates a new solution from <code>s</code> with the same plans where <code>t</code> takes the place of
+     * <code>old</code>, which must have the same cities and a weight at least as big for the plans to stay valid
      */
-    public static Solution finalSolution(Solution initS, int iter, long timeoutPlan) {
-        Solution returnS = initS;
-        long start = System.currentTimeMillis();
+    public static Solution replaceTask(Solution s, Task old, Task t) {
+        Solution newS = new Solution(s);
+        newS.tasks = s.tasks.replace(old, t);
+        newS.rehash();
         
-        Solution best = initS;
+        return newS;
+    }
+    
+    /**
+     * Creates a new solution from <code>s</code> where <code>t</code> is inserted where it adds the least cost amongst
+     * every pickup and delivery position of every vehicle that has room for it all along. Returns <code>null</code> if
+     * there is no such position
+     */
+    public static Solution cheapestInsertion(Solution s, Task t) {
+        Solution newS = new Solution(s);
         
-        for (int i = 0; i < iter; ++i) {
-            if (System.currentTimeMillis() - start > timeoutPlan - 1000) {
-                return best;
-            }
-            List<Solution> neighbors = getNeighbors(returnS);
-            neighbors.add(best);
-            best = getBest(neighbors);
-            
-            returnS = neighbors.get(random.nextInt(neighbors.size()));
-        }
-
-        // return returnS;
-        return best;
+        return newS.insertCheapest(newS.taskIndex(t)) ? newS : null;
     }
     
-    private static List<Solution> getNeighbors(Solution s) {
-        List<Vehicle> nonEmptyVehicles = new ArrayList<Vehicle>();
-        for (Vehicle v2 : s.vehicles()) {
-            if (!s.get(v2).isEmpty()) {
-                nonEmptyVehicles.add(v2);
+    private boolean insertCheapest(int task) {
+        int[] position = new int[2];
+        
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestVehicle = -1;
+        int bestI = -1;
+        int bestJ = -1;
+        
+        for (int v = 0; v < routes.length; ++v) {
+            double cost = insertionDelta(v, task, position);
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestVehicle = v;
+                bestI = position[0];
+                bestJ = position[1];
             }
         }
         
-        if (nonEmptyVehicles.isEmpty()) {
-            return new ArrayList<Solution>();
+        if (bestVehicle < 0) {
+            return false;
         }
         
-        // get random vehicle that's not empty
-        Vehicle v = nonEmptyVehicles.get(random.nextInt(nonEmptyVehicles.size()));
-
-        List<TaskAugmented> vTasks = s.get(v);
-        Task t = vTasks.get(random.nextInt(vTasks.size())).task(); // the task that will be passed to other vehicles and changed in order
-
-        List<Solution> changedVehicleList = changeVehicle(s, v, t);
-
-        List<Solution> changedOrderList = changeOrder(s, v, t);
-
-        List<Solution> changedEverythingList = new ArrayList<Solution>();
-        changedEverythingList.addAll(changedVehicleList);
-        changedEverythingList.addAll(changedOrderList);
-
-        return changedEverythingList;
+        insertTask(bestVehicle, task, bestI, bestJ);
+        
+        return true;
     }
     
     /**
-     * Computed the best solution from vehicle changes and order changes, return
-     * this best solution according to probability
+     * Creates a new solution from <code>s</code> for exactly <code>tasks</code>. Tasks are matched by id, since logist
+     * gives different objects for the same task to <code>askPrice</code>, <code>auctionResult</code> and
+     * <code>plan</code>: a task of <code>s</code> takes the place of the one of <code>tasks</code> with the same id, the
+     * tasks of <code>s</code> that are not in <code>tasks</code> are removed and the missing ones are inserted where
+     * they cost the least
      */
-    private static Solution chooseNeighbors(Solution s, double pickProb) {
-        List<Vehicle> nonEmptyVehicles = new ArrayList<Vehicle>();
-        for (Vehicle v2 : s.vehicles()) {
-            if (!s.get(v2).isEmpty()) {
-                nonEmptyVehicles.add(v2);
+    public static Solution matchTasks(Solution s, Iterable<Task> tasks) {
+        Solution newS = new Solution(s);
+        
+        Map<Integer, Task> byId = new HashMap<Integer, Task>();
+        for (Task t : tasks) {
+            byId.put(t.id, t);
+        }
+        
+        for (int index = 0; index < newS.tasks.size(); ++index) {
+            int v = newS.vehicleOf(index);
+            if (v < 0) {
+                continue;
+            }
+            
+            Task known = newS.tasks.get(index);
+            Task wanted = byId.remove(known.id);
+            if (wanted == null) {
+                newS.removeTask(v, index);
+            } else if (wanted != known) {
+                newS.tasks = newS.tasks.replace(known, wanted);
             }
         }
+        newS.rehash();
         
-        if (nonEmptyVehicles.isEmpty()) {
-            return s;
+        for (Task t : byId.values()) {
+            int index = newS.taskIndex(t);
+            if (!newS.insertCheapest(index)) {
+                newS.greedyAdd(index);
+            }
         }
         
-        // get random vehicle that's not empty
-        Vehicle v = nonEmptyVehicles.get(random.nextInt(nonEmptyVehicles.size()));
-
-        List<TaskAugmented> vTasks = s.get(v);
-        Task t = vTasks.get(random.nextInt(vTasks.size())).task(); // the task that will be passed to other vehicles and changed in order
-
-        List<Solution> changedVehicleList = changeVehicle(s, v, t);
-
-        List<Solution> changedOrderList = changeOrder(s, v, t);
-
-        List<Solution> changedEverythingList = new ArrayList<Solution>();
-        changedEverythingList.addAll(changedVehicleList);
-        changedEverythingList.addAll(changedOrderList);
-
-        Solution best = getBest(changedEverythingList);
-
-        return random.nextDouble() < pickProb ? best : s;
+        return newS;
+    }
+    
+    public static Solution finalSolution(Solution initS, long timeoutPlan) {
+        // We subtract 600 ms from the timeoutPlan so that we do not realise too late we've taken too much time
+        return new RandomWalk().optimize(initS, Integer.MAX_VALUE, Deadline.in(timeoutPlan - 600), newRandom(), null);
     }
     
+    
     /**
-     * Selects the best solution amongst the given ones regarding the cost of a solution
+     * Does <code>iter</code> iterations of <code>chooseNeighbors</code> to find a suboptimal solution
      */
-    private static Solution getBest(List<Solution> sList) {
-        double bestCost = Double.POSITIVE_INFINITY;
-        double bestMaxLength = Double.POSITIVE_INFINITY;
-        Solution bestS = null;
-        
-        for (Solution s : sList) {
-            double cost = 0;
-            int maxLength = 0;
-            for (Vehicle v : s.vehicles()) {
-                cost += cost(s, v);
-                maxLength = Integer.max(maxLength, s.get(v).size());
+    public static Solution finalSolution(Solution initS, int iter, long timeoutPlan) {
+        // We subtract 1000 ms from the timeoutPlan so that we do not realise too late we've taken too much time
+        return new RandomWalk().optimize(initS, iter, Deadline.in(timeoutPlan - 1000), newRandom(), null);
+    }
+    
+    /**
+     * Runs one large neighborhood search per core (and at least one per kind of initial solution), each from its own
+     * initial solution cycling through <code>selectInitialSolutionBis</code>, <code>selectInitialSolutionGreedy</code>
+     * and <code>selectInitialSolution</code>, and returns the best solution found by any of them
+     */
+    public static Solution parallelFinalSolution(List<Vehicle> vehicles, Set<Task> tasks, int iter, long timeoutPlan) {
+        // We subtract 1000 ms from the timeoutPlan so that we do not realise too late we've taken too much time
+        return parallelFinalSolution(vehicles, tasks, iter, Deadline.in(timeoutPlan - 1000));
+    }
+    
+    /**
+     * Same as <code>parallelFinalSolution(vehicles, tasks, iter, timeoutPlan)</code>, returning the best solution so far at <code>deadline</code>
+     */
+    public static Solution parallelFinalSolution(List<Vehicle> vehicles, Set<Task> tasks, int iter, Deadline deadline) {
+        return new AnytimeSolver(initialSolutions(vehicles, tasks, Integer.max(3, AnytimeSolver.parallelism())), iter, deadline).await();
+    }
+    
+    /**
+     * Up to <code>count</code> initial solutions of <code>tasks</code>, cycling through
+     * <code>selectInitialSolutionBis</code>, <code>selectInitialSolutionGreedy</code> and
+     * <code>selectInitialSolution</code>. The ones that could not be built are left out
+     */
+    public static List<Solution> initialSolutions(List<Vehicle> vehicles, Set<Task> tasks, int count) {
+        List<Solution> initSs = new ArrayList<Solution>();
+        
+        for (int i = 0; i < count; ++i) {
+            Solution initS;
+            if (i % 3 == 0) {
+                initS = selectInitialSolutionBis(vehicles, tasks);
+            } else if (i % 3 == 1) {
+                initS = selectInitialSolutionGreedy(vehicles, tasks);
+            } else {
+                initS = selectInitialSolution(vehicles, tasks);
             }
             
-            if (cost < bestCost || (cost == bestCost && maxLength < bestMaxLength)) {
-                bestCost = cost;
-                bestMaxLength = maxLength;
-                bestS = s;
+            if (initS != null) {
+                initSs.add(initS);
             }
         }
         
-        return bestS;
+        return initSs;
     }
     
-    public static int cost(Solution s) {
-        double totalCost = 0.d;
-        for (Vehicle v : s.vehicles()) {
-            totalCost += cost(s, v);
-        }
-        
-        return (int) totalCost;
+    /**
+     * Runs one large neighborhood search per core, all of them starting from <code>initS</code>, and returns the best
+     * solution found by any of them
+     */
+    public static Solution parallelFinalSolution(Solution initS, int iter, long timeoutPlan) {
+        // We subtract 1000 ms from the timeoutPlan so that we do not realise too late we've taken too much time
+        return parallelFinalSolution(initS, iter, Deadline.in(timeoutPlan - 1000));
     }
-     
+    
     /**
-     * Cost of a solution for one vehicle
+     * Same as <code>parallelFinalSolution(initS, iter, timeoutPlan)</code>, returning the best solution so far at <code>deadline</code>
      */
-    public static double cost(Solution s, Vehicle v) {
-        int cost = 0;
-        
-        if (s.get(v).isEmpty()) {
-            return cost;
-        }
-
-        cost += v.getCurrentCity().distanceUnitsTo(s.get(v).get(0).city());
-                
-        for (int i = 0; i < s.get(v).size() - 1; ++i) {
-            cost += s.get(v).get(i).city().distanceUnitsTo(s.get(v).get(i + 1).city());
-        }
-        
-        return Measures.unitsToKM(cost) * v.costPerKm();
+    public static Solution parallelFinalSolution(Solution initS, int iter, Deadline deadline) {
+        return new AnytimeSolver(Collections.nCopies(AnytimeSolver.parallelism(), initS), iter, deadline).await();
     }
     
     /**
-     * Creates derivated solutions from <code>s</code> by putting random task of <code>v</code> to other vehicles
+     * Same as <code>parallelFinalSolution(initS, iter, deadline)</code>, searching with <code>optimizer</code> instead
      */
-    private static List<Solution> changeVehicle(Solution s, Vehicle v, Task t) {
-        List<Solution> sList = new ArrayList<Solution>();
-        if (s.get(v).isEmpty()) {
-            return sList;
-        }
-                
-        TaskAugmented tp = new TaskAugmented(t, true); // a pick up
-        TaskAugmented td = new TaskAugmented(t, false); // equivalent delivery
-        
-        for (Vehicle v2 : s.vehicles()) {
-            if (!v.equals(v2)) {
-                if (v2.capacity() > tp.task().weight) {
-                    Solution newS = new Solution(s);
-                    
-                    newS.remove(v, tp);
-                    newS.remove(v, td);
-                    
-                    newS.add(v2, 0, tp);
-                    newS.add(v2, 1, td);
-                    
-                    sList.add(newS);
-                }
-            }
+    public static Solution parallelFinalSolution(Solution initS, int iter, Deadline deadline, Optimizer optimizer) {
+        return new AnytimeSolver(Collections.nCopies(AnytimeSolver.parallelism(), initS), iter, deadline, optimizer).await();
+    }
+    
+    /**
+     * A generator of its own for one search, <code>SplittableRandom</code> is not thread-safe
+     */
+    static synchronized SplittableRandom newRandom() {
+        return random.split();
+    }
+    
+    /**
+     * Index of a random vehicle that has tasks, -1 if they are all empty
+     */
+    static int randomNonEmptyVehicle(Solution s, SplittableRandom random) {
+        if (s.occupiedCount == 0) {
+            return -1;
         }
         
-        return sList;
+        return s.occupied[random.nextInt(s.occupiedCount)];
     }
     
     /**
-     * Creates derivated solutions from <code>s</code> by changing the order of task <code>t</code> in vehicle <code>v</code>
+     * Computed the best solution from vehicle changes and order changes, return
+     * this best solution according to probability
      */
-    private static List<Solution> changeOrder(Solution s, Vehicle v, Task t) {
-        List<Solution> sList = new ArrayList<Solution>();
-        Solution newS = new Solution(s);
-
-        TaskAugmented tp = new TaskAugmented(t, true);
-        TaskAugmented td = new TaskAugmented(t, false);
-        
-        newS.remove(v, tp);
-        newS.remove(v, td);
+    private static Solution chooseNeighbors(Solution s, double pickProb, SplittableRandom random, Moves moves) {
+        // get random vehicle that's not empty
+        int v = randomNonEmptyVehicle(s, random);
         
-        if (newS.get(v).isEmpty()) {
-            return Arrays.asList(new Solution(s));
+        if (v < 0) {
+            return s;
         }
         
-        List<List<Integer>> indicesList = new ArrayList<List<Integer>>();
+        int t = TaskTable.taskIndex(s.routes[v][random.nextInt(s.lengths[v])]); // the task that will be passed to other vehicles and changed in order
+        s.neighbors(v, t, moves);
         
-        int min = 0;
-        int max = 0;
+        int bestMove = 0;
+        for (int m = 1; m < moves.size(); ++m) {
+            if (moves.delta(m) < moves.delta(bestMove)) {
+                bestMove = m;
+            }
+        }
         
-        int weightAcceptable = v.capacity();
+        if (random.nextDouble() < pickProb) {
+            Solution best = new Solution(s);
+            best.apply(moves, bestMove);
+            return best;
+        }
         
-        boolean commited = false;
+        return s;
+    }
+    
+    public static int cost(Solution s) {
+        return (int) totalCost(s);
+    }
+    
+    static double totalCost(Solution s) {
+        double totalCost = 0.d;
+        for (int v = 0; v < s.routes.length; ++v) {
+            totalCost += cost(s, v);
+        }
         
-        for (int i = 0; i < newS.get(v).size(); ++i) {
-            TaskAugmented curr = newS.get(v).get(i);
-            
-            // finish
-            if ((weightAcceptable < t.weight && !commited) || i == (newS.get(v).size() - 1)) {
-                max = i + 1;
-                indicesList.add(Arrays.asList(min, max));
-                commited = true;
-            }
-            
-            if (weightAcceptable >= t.weight && commited && i != (newS.get(v).size() - 1)) {
-                min = i;
-                commited = false;
-            }
-            
-            if (curr.isPickup()) {
-                weightAcceptable -= curr.task().weight;
-            } else {
-                weightAcceptable += curr.task().weight;
-            }
+        return totalCost;
+    }
+    
+    /**
+     * Cost of a solution for one vehicle
+     */
+    public static double cost(Solution s, Vehicle v) {
+        return cost(s, s.vehicleIndex(v));
+    }
+    
+    private static double cost(Solution s, int v) {
+        int length = s.lengths[v];
+        if (length == 0) {
+            return 0;
         }
         
-        for (List<Integer> minMax : indicesList) {
-            for (int i = minMax.get(0); i <= minMax.get(1); ++i) {
-                for (int j = i; j <= minMax.get(1); ++j) {
-                    Solution newNewS = new Solution(newS);
-                    
-                    newNewS.add(v, i, tp);
-                    newNewS.add(v, j + 1, td);   
-                    
-                    sList.add(newNewS);
-                }
-            }
+        DistanceMatrix distances = s.fleet.distances();
+        int[] route = s.routes[v];
+        long cost = 0;
+        
+        int previous = s.fleet.startId(v);
+        for (int i = 0; i < length; ++i) {
+            int next = s.tasks.cityId(route[i]);
+            cost += distances.units(previous, next);
+            previous = next;
         }
         
-        return sList;
+        return Measures.unitsToKM(cost) * s.fleet.costPerKm(v);
     }
 }
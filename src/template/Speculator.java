@@ -0,0 +1,235 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Uses the time between two auctions to solve in the background what the next <code>askPrice</code> will need: our
+ * committed solution is improved, then solved again with each of the most likely next tasks, most likely first. Tasks
+ * are guessed by their cities with the weight the distribution gives them, so a cached solution is only used for an
+ * auctioned task with the same cities and no bigger weight
+ */
+public class Speculator {
+    
+    // every agent has its own threads, so that an agent never waits for the speculations of another one
+    private final ExecutorService executor;
+    // the searches, kept apart from and smaller than the pool the bids are solved on, so that speculating does not slow
+    // down the other agents bidding
+    private final ForkJoinPool pool;
+    
+    private final TaskDistribution distribution;
+    private final int size;
+    private final long millisPerTask;
+    // pairs of cities from the most likely task to the least likely one
+    private final List<City[]> guesses;
+    
+    private final Map<Integer, Speculation> cache;
+    private volatile int generation;
+    private volatile Solution base;
+    private Deadline running;
+    
+    private static class Speculation {
+        
+        private final int generation;
+        private final Task guess;
+        private final Solution with;
+        
+        private Speculation(int generation, Task guess, Solution with) {
+            this.generation = generation;
+            this.guess = guess;
+            this.with = with;
+        }
+    }
+    
+    /**
+     * Speculator spending at most <code>millisPerTask</code> milliseconds on each guessed task
+     */
+    public Speculator(Topology topology, final TaskDistribution distribution, long millisPerTask) {
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "speculator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.pool = new ForkJoinPool(Math.max(1, AnytimeSolver.parallelism() / 4), new ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("speculation-" + thread.getPoolIndex());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        }, null, false);
+        this.distribution = distribution;
+        this.size = DistanceMatrix.of(topology).size();
+        this.millisPerTask = millisPerTask;
+        this.guesses = new ArrayList<City[]>();
+        this.cache = new ConcurrentHashMap<Integer, Speculation>();
+        this.generation = 0;
+        
+        for (City from : topology.cities()) {
+            for (City to : topology.cities()) {
+                if (from != to && distribution.probability(from, to) > 0) {
+                    guesses.add(new City[] { from, to });
+                }
+            }
+        }
+        
+        Collections.sort(guesses, new Comparator<City[]>() {
+            @Override
+            public int compare(City[] a, City[] b) {
+                return Double.compare(distribution.probability(b[0], b[1]), distribution.probability(a[0], a[1]));
+            }
+        });
+    }
+    
+    /**
+     * Starts working from <code>committed</code>, the solution of the tasks we won so far. If <code>changed</code>,
+     * our tasks are not the ones of the previous call and what is cached is dropped
+     */
+    public synchronized void start(Solution committed, boolean changed) {
+        stop();
+        
+        if (changed) {
+            cache.clear();
+            ++generation;
+        }
+        
+        if (base == null || changed || Solution.cost(committed) < Solution.cost(base)) {
+            base = committed;
+        }
+        
+        final Deadline deadline = Deadline.never();
+        final int startGeneration = generation;
+        running = deadline;
+        
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                speculate(deadline, startGeneration);
+            }
+        });
+    }
+    
+    /**
+     * Stops the background work, what is cached so far stays available
+     */
+    public synchronized void stop() {
+        if (running != null) {
+            running.cancel();
+            running = null;
+        }
+    }
+    
+    /**
+     * Stops the background work for good and releases the threads, once the agent has nothing left to bid on. What is
+     * cached stays available, but <code>start</code> cannot be called anymore
+     */
+    public synchronized void shutdown() {
+        stop();
+        executor.shutdownNow();
+        pool.shutdownNow();
+    }
+    
+    /**
+     * Best solution found for the tasks we won
+     */
+    public Solution base() {
+        return base;
+    }
+    
+    /**
+     * Solution of the tasks we won and <code>t</code>, <code>null</code> if none was computed
+     */
+    public Solution lookup(Task t) {
+        Speculation s = cache.get(key(t.pickupCity, t.deliveryCity));
+        
+        if (s == null || s.generation != generation || t.weight > s.guess.weight) {
+            return null;
+        }
+        
+        return Solution.replaceTask(s.with, s.guess, t);
+    }
+    
+    private void speculate(Deadline deadline, int startGeneration) {
+        Solution improved = solve(base, deadline);
+        if (!publishBase(improved, deadline, startGeneration)) {
+            return;
+        }
+        
+        for (City[] guess : guesses) {
+            Speculation cached = cache.get(key(guess[0], guess[1]));
+            if (cached != null && cached.generation == startGeneration) {
+                continue;
+            }
+            
+            Task t = new Task(-1, guess[0], guess[1], distribution.reward(guess[0], guess[1]), distribution.weight(guess[0], guess[1]));
+            Solution initS = Solution.cheapestInsertion(improved, t);
+            if (initS == null) {
+                initS = Solution.greedySolutionAdd(improved, t);
+            }
+            
+            Solution with = solve(initS, deadline);
+            if (!publish(guess, new Speculation(startGeneration, t, with), deadline, startGeneration)) {
+                return;
+            }
+        }
+    }
+    
+    private Solution solve(Solution initS, Deadline deadline) {
+        List<Solution> initSs = Collections.nCopies(pool.getParallelism(), initS);
+        
+        return new AnytimeSolver(initSs, 2000, deadline.within(millisPerTask), AnytimeSolver.defaultOptimizer(), pool).await();
+    }
+    
+    /**
+     * Makes <code>improved</code> the base, unless <code>start</code> was called since the work began. Checking and
+     * publishing under the lock of <code>start</code> keeps a solution of our previous tasks from replacing the base
+     * after they changed. Returns whether it was done
+     */
+    private synchronized boolean publishBase(Solution improved, Deadline deadline, int startGeneration) {
+        if (!isRunning(deadline, startGeneration)) {
+            return false;
+        }
+        
+        base = improved;
+        return true;
+    }
+    
+    /**
+     * Same as <code>publishBase</code> for the solution with the task guessed from <code>guess</code>
+     */
+    private synchronized boolean publish(City[] guess, Speculation speculation, Deadline deadline, int startGeneration) {
+        if (!isRunning(deadline, startGeneration)) {
+            return false;
+        }
+        
+        cache.put(key(guess[0], guess[1]), speculation);
+        return true;
+    }
+    
+    private boolean isRunning(Deadline deadline, int startGeneration) {
+        return !deadline.expired() && generation == startGeneration;
+    }
+    
+    private int key(City from, City to) {
+        return from.id * size + to.id;
+    }
+}
@@ -0,0 +1,143 @@
+package template;
+
+import java.util.SplittableRandom;
+
+/**
+ * Tabu search: at each iteration, the best neighbor of a few random tasks is taken even if it is worse than the current
+ * solution, except that a task cannot go back to where it was (vehicle and position of its pickup) for a few
+ * iterations, unless that gives a better solution than the best so far. Recent placements are kept in a hashed table,
+ * so two placements may share an entry, which only makes the search a bit stricter
+ */
+public class TabuSearch implements Optimizer {
+    
+    private final static int TABLE_SIZE = 1 << 12;
+    
+    private final int samples;
+    private final int minTenure;
+    private final int maxTenure;
+    private final int restartAfter;
+    
+    /**
+     * Tabu search looking at the neighbors of one task per iteration, forbidding placements for 10 to 20 iterations and
+     * going back to the best solution after 500 iterations without improvement
+     */
+    public TabuSearch() {
+        this(1, 10, 20, 500);
+    }
+    
+    public TabuSearch(int samples, int minTenure, int maxTenure, int restartAfter) {
+        this.samples = samples;
+        this.minTenure = minTenure;
+        this.maxTenure = maxTenure;
+        this.restartAfter = restartAfter;
+    }
+    
+    @Override
+    public Solution optimize(Solution initS, int iter, Deadline deadline, SplittableRandom random, AnytimeSolver solver) {
+        Solution current = new Solution(initS);
+        double currentCost = Solution.totalCost(initS);
+        
+        Solution best = initS;
+        double bestCost = currentCost;
+        int lastImprovement = 0;
+        
+        // iteration until which each placement is tabu
+        int[] tabu = new int[TABLE_SIZE];
+        Moves moves = new Moves();
+        Moves chosen = new Moves();
+        
+        // running average of the duration of an iteration
+        long iterationNanos = 0;
+        long last = System.nanoTime();
+        
+        int iteration = 1;
+        long evaluated = 0;
+        search:
+        for (; iteration <= iter; ++iteration) {
+            if (!deadline.hasTimeFor(iterationNanos)) {
+                break;
+            }
+            
+            chosen.clear();
+            double chosenDelta = Double.POSITIVE_INFINITY;
+            
+            for (int sample = 0; sample < samples; ++sample) {
+                int v = Solution.randomNonEmptyVehicle(current, random);
+                if (v < 0) {
+                    break search;
+                }
+                
+                int t = TaskTable.taskIndex(current.action(v, random.nextInt(current.length(v))));
+                current.neighbors(v, t, moves);
+                evaluated += moves.size();
+                
+                for (int m = 0; m < moves.size(); ++m) {
+                    if (moves.type(m) == Moves.SAME || moves.delta(m) >= chosenDelta) {
+                        continue;
+                    }
+                    
+                    boolean aspiration = currentCost + moves.delta(m) < bestCost;
+                    if (aspiration || tabu[slot(moves, m)] < iteration) {
+                        chosen.clear();
+                        chosen.add(moves.type(m), moves.task(m), moves.from(m), moves.to(m), moves.i(m), moves.j(m), moves.delta(m));
+                        chosenDelta = moves.delta(m);
+                    }
+                }
+            }
+            
+            if (chosen.size() > 0) {
+                int t = chosen.task(0);
+                int v = chosen.from(0);
+                int p = current.indexOf(v, TaskTable.pickup(t));
+                tabu[slot(t, v, p)] = iteration + minTenure + random.nextInt(maxTenure - minTenure + 1);
+                
+                current.apply(chosen, 0);
+                currentCost += chosenDelta;
+                
+                if (currentCost < bestCost) {
+                    best = new Solution(current);
+                    bestCost = currentCost;
+                    lastImprovement = iteration;
+                    
+                    if (solver != null) {
+                        solver.offer(best, bestCost);
+                    }
+                }
+            }
+            
+            if (iteration - lastImprovement > restartAfter) {
+                current = new Solution(best);
+                currentCost = bestCost;
+                lastImprovement = iteration;
+            }
+            
+            long now = System.nanoTime();
+            iterationNanos = (3 * iterationNanos + (now - last)) / 4;
+            last = now;
+        }
+        
+        if (solver != null) {
+            solver.report(iteration - 1, evaluated);
+        }
+        
+        return best;
+    }
+    
+    /**
+     * Entry of the placement move <code>m</code> leads to: the front of the new vehicle or position <code>i</code> in
+     * the same one
+     */
+    private static int slot(Moves moves, int m) {
+        if (moves.type(m) == Moves.CHANGE_VEHICLE) {
+            return slot(moves.task(m), moves.to(m), 0);
+        }
+        
+        return slot(moves.task(m), moves.from(m), moves.i(m));
+    }
+    
+    private static int slot(int task, int vehicle, int position) {
+        int h = (task * 31 + vehicle) * 0x9E3779B1 + position * 0x85EBCA6B;
+        
+        return (h ^ (h >>> 16)) & (TABLE_SIZE - 1);
+    }
+}
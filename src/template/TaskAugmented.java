@@ -5,10 +5,14 @@ import java.util.Objects;
 import logist.task.Task;
 import logist.topology.Topology.City;
 
+/**
+ * The pickup or the delivery of a task. Solutions hand out one shared instance per action (see
+ * <code>TaskTable.augmented</code>), so they are usually compared by reference
+ */
 public class TaskAugmented {
 
-	private Task task;
-	private boolean isPickup;
+	private final Task task;
+	private final boolean isPickup;
 	
 	public TaskAugmented(Task task, boolean isPickup) {
 		this.isPickup = isPickup;
@@ -33,6 +37,9 @@ public class TaskAugmented {
 	
 	@Override
 	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
 		if(o instanceof TaskAugmented) {
 			TaskAugmented that = (TaskAugmented)o;
 			return ( (that.isPickup == this.isPickup) && (that.task.equals(this.task)));
@@ -42,7 +49,7 @@ public class TaskAugmented {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(task, isPickup);
+		return 31 * Objects.hashCode(task) + (isPickup ? 1231 : 1237);
 	}
 	
 	@Override
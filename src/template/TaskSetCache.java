@@ -0,0 +1,126 @@
+package template;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import logist.simulation.Vehicle;
+import logist.task.Task;
+
+/**
+ * Best solution known for each of the last sets of tasks solved, so that solving the same set again starts from it
+ * instead of from scratch. A set is keyed by the ids of its tasks, phantom tasks (negative ids) by their cities and
+ * weight, together with the vehicles. The least recently used set is dropped once the cache is full
+ */
+public class TaskSetCache {
+    
+    private final Map<Key, Solution> solutions;
+    
+    private static class Key {
+        
+        private final List<Vehicle> vehicles;
+        private final BitSet ids;
+        private final long[] phantoms;
+        
+        private Key(List<Vehicle> vehicles, Set<Task> tasks) {
+            this.vehicles = vehicles;
+            this.ids = new BitSet();
+            
+            long[] phantoms = new long[tasks.size()];
+            int count = 0;
+            for (Task t : tasks) {
+                if (t.id >= 0) {
+                    ids.set(t.id);
+                } else {
+                    phantoms[count++] = ((long) t.pickupCity.id << 40) | ((long) t.deliveryCity.id << 20) | t.weight;
+                }
+            }
+            
+            this.phantoms = Arrays.copyOf(phantoms, count);
+            Arrays.sort(this.phantoms);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            
+            Key that = (Key) o;
+            return vehicles.equals(that.vehicles) && ids.equals(that.ids) && Arrays.equals(phantoms, that.phantoms);
+        }
+        
+        @Override
+        public int hashCode() {
+            return (vehicles.hashCode() * 31 + ids.hashCode()) * 31 + Arrays.hashCode(phantoms);
+        }
+    }
+    
+    public TaskSetCache(final int capacity) {
+        this.solutions = new LinkedHashMap<Key, Solution>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Solution> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+    
+    /**
+     * Best known solution of <code>tasks</code> with <code>vehicles</code>, made of the given task objects, or
+     * <code>null</code> if this set was not solved lately
+     */
+    public synchronized Solution get(List<Vehicle> vehicles, Set<Task> tasks) {
+        Solution s = solutions.get(new Key(vehicles, tasks));
+        
+        return s == null ? null : Solution.matchTasks(s, tasks);
+    }
+    
+    /**
+     * Keeps a copy of <code>s</code> as the solution of <code>tasks</code> with <code>vehicles</code> if it is better
+     * than the one known, so that changing <code>s</code> afterwards does not change the cache
+     */
+    public synchronized void offer(List<Vehicle> vehicles, Set<Task> tasks, Solution s) {
+        Key key = new Key(vehicles, tasks);
+        Solution known = solutions.get(key);
+        
+        if (known == null || Solution.totalCost(s) < Solution.totalCost(known)) {
+            solutions.put(key, new Solution(s));
+        }
+    }
+    
+    /**
+     * <code>count</code> solutions of <code>tasks</code> with <code>vehicles</code> to search from: the best known one
+     * if this set was solved lately, initial solutions otherwise
+     */
+    public List<Solution> starts(List<Vehicle> vehicles, Set<Task> tasks, int count) {
+        Solution known = get(vehicles, tasks);
+        
+        return known != null ? Collections.nCopies(count, known) : Solution.initialSolutions(vehicles, tasks, count);
+    }
+    
+    /**
+     * Solves <code>tasks</code> with <code>vehicles</code> until <code>deadline</code>, from the best known solution
+     * if there is one, and keeps the result
+     */
+    public Solution solve(List<Vehicle> vehicles, Set<Task> tasks, int iter, Deadline deadline) {
+        Solution known = get(vehicles, tasks);
+        
+        Solution s;
+        if (known != null) {
+            s = Solution.parallelFinalSolution(known, iter, deadline);
+        } else {
+            s = Solution.parallelFinalSolution(vehicles, tasks, iter, deadline);
+        }
+        if (s != null) {
+            offer(vehicles, tasks, s);
+        }
+        
+        return s;
+    }
+}
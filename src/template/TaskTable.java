@@ -0,0 +1,220 @@
+package template;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * Indexes the tasks known by a solution. An action of a plan is encoded as <code>taskIndex * 2</code> for a pickup and
+ * <code>taskIndex * 2 + 1</code> for a delivery. A table is never modified, adding a task creates a new table so that
+ * copies of a solution can share it
+ */
+public class TaskTable {
+    
+    public final static TaskTable EMPTY = new TaskTable(new Task[0], new HashMap<Task, Integer>(), new TaskAugmented[0]);
+    
+    private final Task[] tasks;
+    private final int[] cities;
+    private final int[] weights;
+    private final long[] keys;
+    // one pickup and one delivery per task, shared by every table knowing the task
+    private final TaskAugmented[] augmented;
+    private final Map<Task, Integer> indices;
+    
+    /**
+     * Table of <code>tasks</code>, reusing the <code>TaskAugmented</code> of <code>known</code>, the actions of a
+     * previous table, for the tasks that did not change
+     */
+    private TaskTable(Task[] tasks, Map<Task, Integer> indices, TaskAugmented[] known) {
+        this.tasks = tasks;
+        this.indices = indices;
+        this.cities = new int[2 * tasks.length];
+        this.weights = new int[2 * tasks.length];
+        this.keys = new long[2 * tasks.length];
+        this.augmented = new TaskAugmented[2 * tasks.length];
+        
+        for (int i = 0; i < tasks.length; ++i) {
+            if (pickup(i) < known.length && known[pickup(i)].task() == tasks[i]) {
+                augmented[pickup(i)] = known[pickup(i)];
+                augmented[delivery(i)] = known[delivery(i)];
+            } else {
+                augmented[pickup(i)] = new TaskAugmented(tasks[i], true);
+                augmented[delivery(i)] = new TaskAugmented(tasks[i], false);
+            }
+        }
+        
+        for (int i = 0; i < tasks.length; ++i) {
+            cities[pickup(i)] = tasks[i].pickupCity.id;
+            cities[delivery(i)] = tasks[i].deliveryCity.id;
+            weights[pickup(i)] = tasks[i].weight;
+            weights[delivery(i)] = tasks[i].weight;
+            keys[pickup(i)] = mix(2L * tasks[i].hashCode());
+            keys[delivery(i)] = mix(2L * tasks[i].hashCode() + 1);
+        }
+    }
+    
+    /**
+     * Table of tasks only known by their cities and weights, without any logist <code>Task</code> behind them. Such a
+     * table can be searched but not turned into plans, it is meant for benchmarks
+     */
+    TaskTable(int[] pickupCities, int[] deliveryCities, int[] weights) {
+        int size = pickupCities.length;
+        
+        this.tasks = new Task[size];
+        this.indices = new HashMap<Task, Integer>();
+        this.cities = new int[2 * size];
+        this.weights = new int[2 * size];
+        this.keys = new long[2 * size];
+        this.augmented = new TaskAugmented[2 * size];
+        
+        for (int i = 0; i < size; ++i) {
+            cities[pickup(i)] = pickupCities[i];
+            cities[delivery(i)] = deliveryCities[i];
+            this.weights[pickup(i)] = weights[i];
+            this.weights[delivery(i)] = weights[i];
+            keys[pickup(i)] = mix(pickup(i));
+            keys[delivery(i)] = mix(delivery(i));
+            augmented[pickup(i)] = new TaskAugmented(null, true);
+            augmented[delivery(i)] = new TaskAugmented(null, false);
+        }
+    }
+    
+    public int size() {
+        return tasks.length;
+    }
+    
+    public Task get(int index) {
+        return tasks[index];
+    }
+    
+    /**
+     * Creates a table knowing every task of <code>tasks</code>, indexed in iteration order
+     */
+    public static TaskTable of(Iterable<Task> tasks) {
+        Map<Task, Integer> indices = new HashMap<Task, Integer>();
+        for (Task t : tasks) {
+            if (!indices.containsKey(t)) {
+                indices.put(t, indices.size());
+            }
+        }
+        
+        Task[] array = new Task[indices.size()];
+        for (Map.Entry<Task, Integer> e : indices.entrySet()) {
+            array[e.getValue()] = e.getKey();
+        }
+        
+        return new TaskTable(array, indices, EMPTY.augmented);
+    }
+    
+    /**
+     * Index of <code>t</code> in this table, -1 if it is unknown
+     */
+    public int indexOf(Task t) {
+        Integer i = indices.get(t);
+        return i == null ? -1 : i;
+    }
+    
+    /**
+     * Returns a table knowing <code>t</code>, <code>this</code> if it already does
+     */
+    public TaskTable with(Task t) {
+        if (indices.containsKey(t)) {
+            return this;
+        }
+        
+        Task[] newTasks = Arrays.copyOf(tasks, tasks.length + 1);
+        newTasks[tasks.length] = t;
+        
+        Map<Task, Integer> newIndices = new HashMap<Task, Integer>(indices);
+        newIndices.put(t, tasks.length);
+        
+        return new TaskTable(newTasks, newIndices, augmented);
+    }
+    
+    /**
+     * Returns a table where <code>t</code> takes the index of <code>old</code>, <code>old</code> having to be known.
+     * Actions keep their encoding so that plans stay valid as long as both tasks have the same cities
+     */
+    public TaskTable replace(Task old, Task t) {
+        int index = indices.get(old);
+        
+        Task[] newTasks = tasks.clone();
+        newTasks[index] = t;
+        
+        Map<Task, Integer> newIndices = new HashMap<Task, Integer>(indices);
+        newIndices.remove(old);
+        newIndices.put(t, index);
+        
+        return new TaskTable(newTasks, newIndices, augmented);
+    }
+    
+    public static int pickup(int index) {
+        return index << 1;
+    }
+    
+    public static int delivery(int index) {
+        return (index << 1) | 1;
+    }
+    
+    public static int taskIndex(int action) {
+        return action >> 1;
+    }
+    
+    public static boolean isPickup(int action) {
+        return (action & 1) == 0;
+    }
+    
+    public static int encode(int index, boolean isPickup) {
+        return isPickup ? pickup(index) : delivery(index);
+    }
+    
+    public Task task(int action) {
+        return tasks[action >> 1];
+    }
+    
+    public City city(int action) {
+        Task t = tasks[action >> 1];
+        return isPickup(action) ? t.pickupCity : t.deliveryCity;
+    }
+    
+    /**
+     * Id of the city where <code>action</code> takes place
+     */
+    public int cityId(int action) {
+        return cities[action];
+    }
+    
+    /**
+     * Weight of the task of <code>action</code>
+     */
+    public int weight(int action) {
+        return weights[action];
+    }
+    
+    /**
+     * Random-looking 64 bits standing for <code>action</code> in the hash of a solution. It only depends on the task
+     * (its <code>hashCode</code>) and on the kind of action, so equal solutions have equal hashes whatever their tables
+     */
+    public long key(int action) {
+        return keys[action];
+    }
+    
+    /**
+     * Mixes the bits of <code>z</code> (the finalizer of SplitMix64)
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * The pickup or delivery of <code>action</code>, always the same object for a given task
+     */
+    public TaskAugmented augmented(int action) {
+        return augmented[action];
+    }
+}
@@ -0,0 +1,40 @@
+package template;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Costs of the last solutions seen by a search, keyed by their <code>fingerprint</code>. The least recently used entry
+ * is dropped once the cache is full. Two different solutions may share a fingerprint, which only makes a search skip
+ * a solution it did not see, with a probability of about one in 2^64
+ */
+public class VisitedCache {
+    
+    private final Map<Long, Double> costs;
+    
+    public VisitedCache(final int capacity) {
+        this.costs = new LinkedHashMap<Long, Double>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Double> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+    
+    /**
+     * Cost of the solution with fingerprint <code>fingerprint</code>, <code>null</code> if it was not seen lately
+     */
+    public Double get(long fingerprint) {
+        return costs.get(fingerprint);
+    }
+    
+    public void put(long fingerprint, double cost) {
+        costs.put(fingerprint, cost);
+    }
+    
+    public int size() {
+        return costs.size();
+    }
+}